@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.config.weblog;
+
+import io.netty.channel.ChannelOption;
+import java.time.Duration;
+import lombok.val;
+import org.icgc.argo.workflow_management.util.JacksonUtils;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Single pooled client shared by every event sent to the web-log service. Events are encoded
+ * straight into the request's buffers with the same mapper as JacksonUtils.
+ */
+@Configuration
+public class WebLogClientConfig {
+  public static final String WEBLOG_WEB_CLIENT = "weblogWebClient";
+
+  @Bean(name = WEBLOG_WEB_CLIENT)
+  public WebClient weblogWebClient(NextflowProperties config) {
+    val weblogConfig = config.getWeblog();
+    val connectionProvider =
+        ConnectionProvider.builder("weblog")
+            .maxConnections(weblogConfig.getMaxConnections())
+            .pendingAcquireMaxCount(weblogConfig.getPendingAcquireMaxCount())
+            .pendingAcquireTimeout(Duration.ofMillis(weblogConfig.getPendingAcquireTimeout()))
+            .maxIdleTime(Duration.ofMillis(weblogConfig.getMaxIdleTime()))
+            .evictInBackground(Duration.ofMillis(weblogConfig.getMaxIdleTime()))
+            .build();
+    val httpClient =
+        HttpClient.create(connectionProvider)
+            .keepAlive(true)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, weblogConfig.getConnectTimeout())
+            .responseTimeout(Duration.ofMillis(weblogConfig.getResponseTimeout()));
+
+    return WebClient.builder()
+        .baseUrl(config.getWeblogUrl())
+        .clientConnector(new ReactorClientHttpConnector(httpClient))
+        .codecs(
+            codecs ->
+                codecs
+                    .defaultCodecs()
+                    .jackson2JsonEncoder(
+                        new Jackson2JsonEncoder(
+                            JacksonUtils.getObjectMapper(), MediaType.APPLICATION_JSON)))
+        .build();
+  }
+}
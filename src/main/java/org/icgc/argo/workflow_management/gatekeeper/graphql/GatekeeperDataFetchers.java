@@ -30,10 +30,12 @@ import lombok.val;
 import org.icgc.argo.workflow_management.gatekeeper.graphql.model.GqlSearchQueryArgs;
 import org.icgc.argo.workflow_management.gatekeeper.graphql.model.SearchResult;
 import org.icgc.argo.workflow_management.gatekeeper.service.GateKeeperService;
+import org.icgc.argo.workflow_management.gatekeeper.service.ReactiveGateKeeperService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Component;
 
@@ -41,7 +43,7 @@ import org.springframework.stereotype.Component;
 public class GatekeeperDataFetchers {
 
   @Bean
-  @Profile("gatekeeper")
+  @Profile("gatekeeper & !r2dbc")
   public Map<String, DataFetcher> dataFetchersMap(GateKeeperService gateKeeperService) {
     return ImmutableMap.of(
         RUN_QUERY_NAME,
@@ -50,6 +52,17 @@ public class GatekeeperDataFetchers {
         createRemoveRunDataFetcher(gateKeeperService));
   }
 
+  @Bean
+  @Profile("gatekeeper & r2dbc")
+  public Map<String, DataFetcher> reactiveDataFetchersMap(
+      ReactiveGateKeeperService gateKeeperService) {
+    return ImmutableMap.of(
+        RUN_QUERY_NAME,
+        createReactiveActiveRunsDataFetcher(gateKeeperService),
+        REMOVE_RUN_MUTATION_NAME,
+        createReactiveRemoveRunDataFetcher(gateKeeperService));
+  }
+
   @Bean
   @Profile("!gatekeeper")
   public Map<String, DataFetcher> disabledDataFetchersMap() {
@@ -61,28 +74,8 @@ public class GatekeeperDataFetchers {
     return environment -> {
       val args = convertValue(environment.getArguments(), GqlSearchQueryArgs.class);
 
-      val page = args.getPage();
       val runExample = args.getExample();
-      val sorts = args.getSorts();
-
-      val sortable =
-          sorts == null
-              ? Sort.unsorted()
-              : Sort.by(
-                  sorts.stream()
-                      .map(
-                          s ->
-                              new Sort.Order(
-                                  s.getOrder().equalsIgnoreCase("asc")
-                                      ? Sort.Direction.ASC
-                                      : Sort.Direction.DESC,
-                                  s.getFieldName()))
-                      .collect(toList()));
-
-      val pageable =
-          page == null
-              ? PageRequest.of(0, 10, sortable)
-              : PageRequest.of(page.getFrom(), page.getSize(), sortable);
+      val pageable = toPageable(args);
 
       val result =
           runExample == null
@@ -96,4 +89,47 @@ public class GatekeeperDataFetchers {
   private static DataFetcher createRemoveRunDataFetcher(GateKeeperService gateKeeperService) {
     return environment -> gateKeeperService.removeRun(environment.getArgument("runId"));
   }
+
+  // graphql-java resolves the returned futures, so no thread waits on the db
+  private static DataFetcher createReactiveActiveRunsDataFetcher(
+      ReactiveGateKeeperService gateKeeperService) {
+    return environment -> {
+      val args = convertValue(environment.getArguments(), GqlSearchQueryArgs.class);
+      return gateKeeperService
+          .getRuns(args.getExample(), toPageable(args))
+          .map(
+              result ->
+                  new SearchResult<>(
+                      result.getContent(), result.hasNext(), result.getTotalElements()))
+          .toFuture();
+    };
+  }
+
+  private static DataFetcher createReactiveRemoveRunDataFetcher(
+      ReactiveGateKeeperService gateKeeperService) {
+    return environment -> gateKeeperService.removeRun(environment.getArgument("runId")).toFuture();
+  }
+
+  private static Pageable toPageable(GqlSearchQueryArgs args) {
+    val page = args.getPage();
+    val sorts = args.getSorts();
+
+    val sortable =
+        sorts == null
+            ? Sort.unsorted()
+            : Sort.by(
+                sorts.stream()
+                    .map(
+                        s ->
+                            new Sort.Order(
+                                s.getOrder().equalsIgnoreCase("asc")
+                                    ? Sort.Direction.ASC
+                                    : Sort.Direction.DESC,
+                                s.getFieldName()))
+                    .collect(toList()));
+
+    return page == null
+        ? PageRequest.of(0, 10, sortable)
+        : PageRequest.of(page.getFrom(), page.getSize(), sortable);
+  }
 }
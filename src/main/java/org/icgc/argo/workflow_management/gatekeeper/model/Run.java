@@ -6,7 +6,7 @@ import org.icgc.argo.workflow_management.streams.schema.RunState;
 
 @Entity(name = "runs")
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 @EqualsAndHashCode
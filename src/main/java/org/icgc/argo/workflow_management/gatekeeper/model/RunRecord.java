@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.gatekeeper.model;
+
+import static java.util.Optional.ofNullable;
+import static org.icgc.argo.workflow_management.util.JacksonUtils.readValue;
+import static org.icgc.argo.workflow_management.util.JacksonUtils.toJsonString;
+
+import io.r2dbc.postgresql.codec.Json;
+import lombok.*;
+import org.icgc.argo.workflow_management.streams.schema.RunState;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.relational.core.mapping.Table;
+
+/** R2DBC mapping of the runs table holding {@link Run}s, with its json columns as Json */
+@Table("runs")
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+public class RunRecord {
+
+  @Id private String runId;
+  private String workflowUrl;
+  private String workflowType;
+  private String workflowTypeVersion;
+  private Json workflowParamsJsonStr;
+  private RunState state;
+  private Json workflowEngineParams;
+  private Long timestamp;
+
+  @Version private Long version;
+
+  public static RunRecord of(Run run) {
+    return RunRecord.builder()
+        .runId(run.getRunId())
+        .workflowUrl(run.getWorkflowUrl())
+        .workflowType(run.getWorkflowType())
+        .workflowTypeVersion(run.getWorkflowTypeVersion())
+        .workflowParamsJsonStr(
+            ofNullable(run.getWorkflowParamsJsonStr()).map(Json::of).orElse(null))
+        .state(run.getState())
+        .workflowEngineParams(
+            ofNullable(run.getWorkflowEngineParams())
+                .map(engineParams -> Json.of(toJsonString(engineParams)))
+                .orElse(null))
+        .timestamp(run.getTimestamp())
+        .version(run.getVersion())
+        .build();
+  }
+
+  public Run toRun() {
+    return Run.builder()
+        .runId(runId)
+        .workflowUrl(workflowUrl)
+        .workflowType(workflowType)
+        .workflowTypeVersion(workflowTypeVersion)
+        .workflowParamsJsonStr(ofNullable(workflowParamsJsonStr).map(Json::asString).orElse(null))
+        .state(state)
+        .workflowEngineParams(
+            ofNullable(workflowEngineParams)
+                .map(json -> readValue(json.asString(), Run.EngineParams.class))
+                .orElse(null))
+        .timestamp(timestamp)
+        .version(version)
+        .build();
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.gatekeeper.repository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc.argo.workflow_management.gatekeeper.model.Run;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Bounded write-through cache of the active runs in ActiveRunsRepo, including the runs known not to
+ * be active, so checking a msg against its run doesn't need a db round trip. Every write goes to
+ * the db first and the cache keeps what the db returned, so cached versions match the @Version
+ * column. This holds as long as the gatekeeper is the only one writing active runs.
+ */
+@Slf4j
+@Profile("gatekeeper & !r2dbc")
+@Component
+public class ActiveRunsCache {
+  public static final String CACHE_METRIC_NAME = "gatekeeper.activeRuns";
+
+  private static final int LOCK_STRIPES = 64;
+
+  private final ActiveRunsRepo repo;
+  private final TransactionTemplate transactionTemplate;
+  private final Cache<String, Optional<Run>> runs;
+  private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+
+  @Autowired
+  public ActiveRunsCache(
+      ActiveRunsRepo repo,
+      TransactionTemplate transactionTemplate,
+      @Value("${gatekeeper.cache.maxSize:10000}") Long maxSize,
+      MeterRegistry meterRegistry) {
+    this.repo = repo;
+    this.transactionTemplate = transactionTemplate;
+    this.runs = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+    GuavaCacheMetrics.monitor(meterRegistry, runs, CACHE_METRIC_NAME);
+  }
+
+  /** Runs the action holding the runs' locks, so their checks and updates aren't interleaved */
+  public <T> T withRunsLocked(Collection<String> runIds, Supplier<T> action) {
+    // bulkGet orders the locks the same way for everyone, so they can't deadlock
+    val runLocks = locks.bulkGet(runIds);
+    runLocks.forEach(Lock::lock);
+    try {
+      return action.get();
+    } finally {
+      runLocks.forEach(Lock::unlock);
+    }
+  }
+
+  /** @return copy of the active run, free to be changed before being saved */
+  @SneakyThrows
+  public Optional<Run> find(String runId) {
+    return runs.get(runId, () -> repo.findById(runId)).map(ActiveRunsCache::copy);
+  }
+
+  /**
+   * Deletes and then saves runs in one db transaction, inserts, updates and deletes each going in
+   * one batch of statements when hibernate.jdbc.batch_size is set.
+   */
+  public void writeAll(Collection<Run> runsToSave, Collection<String> runIdsToDelete) {
+    if (runsToSave.isEmpty() && runIdsToDelete.isEmpty()) {
+      return;
+    }
+
+    try {
+      val savedRuns =
+          transactionTemplate.execute(
+              status -> {
+                if (!runIdsToDelete.isEmpty()) {
+                  repo.deleteAllByIdInBatch(runIdsToDelete);
+                }
+                return repo.saveAll(runsToSave);
+              });
+      runIdsToDelete.forEach(runId -> runs.put(runId, Optional.empty()));
+      savedRuns.forEach(run -> runs.put(run.getRunId(), Optional.of(copy(run))));
+    } catch (RuntimeException e) {
+      // the db may hold something else than the cache thinks, reload these runs next time
+      if (e instanceof ObjectOptimisticLockingFailureException) {
+        log.warn("Cached active runs are stale, evicting them: {}", e.getMessage());
+      }
+      runsToSave.forEach(run -> runs.invalidate(run.getRunId()));
+      runs.invalidateAll(runIdsToDelete);
+      throw e;
+    }
+  }
+
+  public void delete(String runId) {
+    try {
+      repo.deleteById(runId);
+      runs.put(runId, Optional.empty());
+    } catch (EmptyResultDataAccessException e) {
+      // already deleted by someone else
+      runs.put(runId, Optional.empty());
+      throw e;
+    } catch (RuntimeException e) {
+      runs.invalidate(runId);
+      throw e;
+    }
+  }
+
+  private static Run copy(Run run) {
+    return run.toBuilder().build();
+  }
+}
@@ -18,18 +18,11 @@
 
 package org.icgc.argo.workflow_management.gatekeeper.repository;
 
-import java.util.Optional;
-import javax.persistence.LockModeType;
 import org.icgc.argo.workflow_management.gatekeeper.model.Run;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Lock;
 import org.springframework.stereotype.Repository;
 
-@Profile("gatekeeper")
+@Profile("gatekeeper & !r2dbc")
 @Repository
-public interface ActiveRunsRepo extends JpaRepository<Run, String> {
-
-  @Lock(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
-  Optional<Run> findActiveRunByRunId(String runId);
-}
+public interface ActiveRunsRepo extends JpaRepository<Run, String> {}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.gatekeeper.repository;
+
+import io.r2dbc.postgresql.codec.Json;
+import java.util.Collection;
+import org.icgc.argo.workflow_management.gatekeeper.model.RunRecord;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+/** Non-blocking counterpart of ActiveRunsRepo over the same runs table */
+@Profile("gatekeeper & r2dbc")
+@Repository
+public interface ReactiveActiveRunsRepo extends R2dbcRepository<RunRecord, String> {
+
+  /** @return the run as updated, empty if it's not in one of currentStates */
+  @Query(
+      "UPDATE runs SET state = :nextState, version = version + 1"
+          + " WHERE run_id = :runId AND state IN (:currentStates) RETURNING *")
+  Mono<RunRecord> updateStateIfIn(
+      String runId, Collection<String> currentStates, String nextState);
+
+  /** @return the run as updated, empty if it's not in one of currentStates */
+  @Query(
+      "UPDATE runs SET state = :nextState, workflow_engine_params = :workflowEngineParams,"
+          + " workflow_params_json_str = :workflowParamsJsonStr, version = version + 1"
+          + " WHERE run_id = :runId AND state IN (:currentStates) RETURNING *")
+  Mono<RunRecord> updateRunIfIn(
+      String runId,
+      Collection<String> currentStates,
+      String nextState,
+      Json workflowEngineParams,
+      Json workflowParamsJsonStr);
+
+  /** @return the run as it was before it was deleted, empty if it's not in one of currentStates */
+  @Query("DELETE FROM runs WHERE run_id = :runId AND state IN (:currentStates) RETURNING *")
+  Mono<RunRecord> deleteIfIn(String runId, Collection<String> currentStates);
+
+  /** @return the run as inserted, empty if a run with runId already exists */
+  @Query(
+      "INSERT INTO runs (run_id, state, workflow_url, workflow_params_json_str,"
+          + " workflow_engine_params, timestamp, version)"
+          + " VALUES (:runId, :state, :workflowUrl, :workflowParamsJsonStr,"
+          + " :workflowEngineParams, :timestamp, 0)"
+          + " ON CONFLICT (run_id) DO NOTHING RETURNING *")
+  Mono<RunRecord> insertIfAbsent(
+      String runId,
+      String state,
+      String workflowUrl,
+      Json workflowParamsJsonStr,
+      Json workflowEngineParams,
+      Long timestamp);
+}
@@ -18,17 +18,27 @@
 
 package org.icgc.argo.workflow_management.gatekeeper.service;
 
+import static org.icgc.argo.workflow_management.gatekeeper.service.RunConverters.msgFromRun;
+import static org.icgc.argo.workflow_management.gatekeeper.service.RunConverters.runEngParamFromMsg;
+import static org.icgc.argo.workflow_management.gatekeeper.service.RunConverters.runFromMsg;
+import static org.icgc.argo.workflow_management.gatekeeper.service.StateTransition.TERMINAL_STATES;
 import static org.icgc.argo.workflow_management.gatekeeper.service.StateTransition.nextState;
 import static org.icgc.argo.workflow_management.streams.schema.RunState.*;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.icgc.argo.workflow_management.gatekeeper.model.Run;
+import org.icgc.argo.workflow_management.gatekeeper.repository.ActiveRunsCache;
 import org.icgc.argo.workflow_management.gatekeeper.repository.ActiveRunsRepo;
-import org.icgc.argo.workflow_management.streams.schema.EngineParams;
 import org.icgc.argo.workflow_management.streams.schema.RunState;
 import org.icgc.argo.workflow_management.streams.schema.WfMgmtRunMsg;
 import org.springframework.context.annotation.Profile;
@@ -36,65 +46,127 @@ import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-@Profile("gatekeeper")
+@Profile("gatekeeper & !r2dbc")
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class GateKeeperService {
-  // Run moving into terminal states is removed from db because it's at the end of its lifecycle
-  private static final Set<RunState> TERMINAL_STATES =
-      Set.of(SYSTEM_ERROR, EXECUTOR_ERROR, CANCELED, COMPLETE);
-
   private final ActiveRunsRepo repo;
+  // transition checks are served from the cache, only accepted transitions are written to the db
+  private final ActiveRunsCache cache;
 
   /**
    * Checks if msg is moving run to a valid next state for an active run. Returns msgs with
    * nextState if allowed and null if not.
    */
-  @Transactional
   public Optional<WfMgmtRunMsg> checkWfMgmtRunMsgAndUpdate(WfMgmtRunMsg msg) {
-    val knownRunOpt = repo.findActiveRunByRunId(msg.getRunId());
-
-    // short circuit, run is new
-    if (knownRunOpt.isEmpty() && msg.getState().equals(QUEUED)) {
-      val newRun = repo.save(runFromMsg(msg));
-      log.debug("Active Run created: {}", newRun);
-      return Optional.of(msg);
-    } else if (knownRunOpt.isEmpty()) {
-      return Optional.empty();
-    }
-
-    val knownRun = knownRunOpt.get();
-    // update parmas from msg
-    knownRun.setWorkflowEngineParams(runEngParamFromMsg(msg.getWorkflowEngineParams()));
-    knownRun.setWorkflowParamsJsonStr(msg.getWorkflowParamsJsonStr());
-
-    val inputState = msg.getState();
-
-    return Optional.ofNullable(msgFromRun(checkActiveRunAndUpdate(knownRun, inputState)));
+    return checkAndUpdate(List.of(CheckInput.of(msg))).get(0);
   }
 
   /**
    * Checks if inputState is moving exsisting run to a valid next state. Returns msgs with nextState
    * if allowed and null if not.
    */
-  @Transactional
   public Optional<WfMgmtRunMsg> checkWithExistingAndUpdateStateOnly(
       String runId, RunState inputState) {
-    val knownRunOpt = repo.findActiveRunByRunId(runId);
-    if (knownRunOpt.isEmpty()) {
-      log.debug("Active Run not found, so not updated: {} {}", runId, inputState);
-      return Optional.empty();
-    } else {
-      return Optional.ofNullable(
-          msgFromRun(checkActiveRunAndUpdate(knownRunOpt.get(), inputState)));
-    }
+    return checkAndUpdate(List.of(CheckInput.ofStateOnly(runId, inputState))).get(0);
   }
 
-  @Transactional
-  private Run checkActiveRunAndUpdate(Run knownRun, RunState inputState) {
+  /**
+   * Batch version of checkWfMgmtRunMsgAndUpdate. Msgs are checked in order, each against its run as
+   * left by the msgs before it, and all allowed transitions are written in one db transaction.
+   *
+   * @return for each msg, the msg with its nextState if allowed and empty if not
+   */
+  public List<Optional<WfMgmtRunMsg>> checkWfMgmtRunMsgsAndUpdate(List<WfMgmtRunMsg> msgs) {
+    return checkAndUpdate(msgs.stream().map(CheckInput::of).collect(Collectors.toList()));
+  }
+
+  /**
+   * Batch version of checkWithExistingAndUpdateStateOnly, for msgs of which only the runId and
+   * state are used. Checked and written like in checkWfMgmtRunMsgsAndUpdate.
+   *
+   * @return for each msg, the msg with its nextState if allowed and empty if not
+   */
+  public List<Optional<WfMgmtRunMsg>> checkWithExistingAndUpdateStatesOnly(
+      List<WfMgmtRunMsg> msgs) {
+    return checkAndUpdate(
+        msgs.stream()
+            .map(msg -> CheckInput.ofStateOnly(msg.getRunId(), msg.getState()))
+            .collect(Collectors.toList()));
+  }
+
+  private List<Optional<WfMgmtRunMsg>> checkAndUpdate(List<CheckInput> inputs) {
+    val runIds = inputs.stream().map(CheckInput::getRunId).collect(Collectors.toSet());
+    return cache.withRunsLocked(
+        runIds,
+        () -> {
+          val knownRuns = new HashMap<String, Optional<Run>>();
+          runIds.forEach(runId -> knownRuns.put(runId, cache.find(runId)));
+          val existingRunIds =
+              runIds.stream()
+                  .filter(runId -> knownRuns.get(runId).isPresent())
+                  .collect(Collectors.toSet());
+          val changedRunIds = new HashSet<String>();
+
+          val results = new ArrayList<Optional<WfMgmtRunMsg>>(inputs.size());
+          for (val input : inputs) {
+            val runId = input.getRunId();
+            val msg = input.getMsg();
+            // work on a copy so that a rejected msg leaves the run as it was
+            val knownRunOpt = knownRuns.get(runId).map(run -> run.toBuilder().build());
+
+            Optional<WfMgmtRunMsg> result;
+            if (knownRunOpt.isEmpty() && msg != null && input.getState().equals(QUEUED)) {
+              // short circuit, run is new
+              knownRuns.put(runId, Optional.of(runFromMsg(msg)));
+              log.debug("Active Run created: {}", runId);
+              result = Optional.of(msg);
+            } else if (knownRunOpt.isEmpty()) {
+              log.debug("Active Run not found, so not updated: {} {}", runId, input.getState());
+              result = Optional.empty();
+            } else {
+              val knownRun = knownRunOpt.get();
+              if (msg != null) {
+                // update parmas from msg
+                knownRun.setWorkflowEngineParams(
+                    runEngParamFromMsg(msg.getWorkflowEngineParams()));
+                knownRun.setWorkflowParamsJsonStr(msg.getWorkflowParamsJsonStr());
+              }
+              result = Optional.ofNullable(checkActiveRunAndUpdate(knownRun, input.getState()));
+              result.ifPresent(
+                  allowedMsg ->
+                      knownRuns.put(
+                          runId,
+                          TERMINAL_STATES.contains(knownRun.getState())
+                              ? Optional.empty()
+                              : Optional.of(knownRun)));
+            }
+            result.ifPresent(allowedMsg -> changedRunIds.add(runId));
+            results.add(result);
+          }
+
+          val runsToSave =
+              changedRunIds.stream()
+                  .map(knownRuns::get)
+                  .flatMap(Optional::stream)
+                  .collect(Collectors.toList());
+          // runs that were in the db and have finished, or were queued again as new runs
+          val runIdsToDelete =
+              changedRunIds.stream()
+                  .filter(existingRunIds::contains)
+                  .filter(
+                      runId ->
+                          knownRuns.get(runId).map(run -> run.getVersion() == null).orElse(true))
+                  .collect(Collectors.toList());
+          cache.writeAll(runsToSave, runIdsToDelete);
+          log.debug("Active Runs saved: {}, removed: {}", runsToSave, runIdsToDelete);
+          return results;
+        });
+  }
+
+  private WfMgmtRunMsg checkActiveRunAndUpdate(Run knownRun, RunState inputState) {
     val currentState = knownRun.getState();
 
     // check if this is a valid state transition
@@ -104,18 +176,8 @@ public class GateKeeperService {
       return null;
     }
 
-    val nextState = nextStateOpt.get();
-    knownRun.setState(nextState);
-
-    if (TERMINAL_STATES.contains(knownRun.getState())) {
-      repo.deleteById(knownRun.getRunId());
-      log.debug("Active Run removed: {}", knownRun);
-      return knownRun;
-    } else {
-      val updatedRun = repo.save(knownRun);
-      log.debug("Active Run updated: {}", updatedRun);
-      return updatedRun;
-    }
+    knownRun.setState(nextStateOpt.get());
+    return msgFromRun(knownRun);
   }
 
   public Page<Run> getRuns(Pageable pageable) {
@@ -127,67 +189,27 @@ public class GateKeeperService {
   }
 
   public Boolean removeRun(String runId) {
-    repo.deleteById(runId);
-    return true;
+    return cache.withRunsLocked(
+        Set.of(runId),
+        () -> {
+          cache.delete(runId);
+          return true;
+        });
   }
 
-  private Run runFromMsg(WfMgmtRunMsg msg) {
-    val msgWep = msg.getWorkflowEngineParams();
-    val runWep =
-        Run.EngineParams.builder()
-            .latest(msgWep.getLatest())
-            .defaultContainer(msgWep.getDefaultContainer())
-            .launchDir(msgWep.getLaunchDir())
-            .revision(msgWep.getRevision())
-            .projectDir(msgWep.getProjectDir())
-            .workDir(msgWep.getWorkDir())
-            .resume(msgWep.getResume())
-            .build();
-
-    return Run.builder()
-        .runId(msg.getRunId())
-        .state(msg.getState())
-        .workflowUrl(msg.getWorkflowUrl())
-        .workflowParamsJsonStr(msg.getWorkflowParamsJsonStr())
-        .workflowEngineParams(runWep)
-        .timestamp(msg.getTimestamp())
-        .build();
-  }
+  /** Msg to check, or only the runId and state of one when msg is null */
+  @Value
+  private static class CheckInput {
+    String runId;
+    RunState state;
+    WfMgmtRunMsg msg;
 
-  private WfMgmtRunMsg msgFromRun(Run run) {
-    if (run == null) return null;
-
-    val msgWep = run.getWorkflowEngineParams();
-    val runWep =
-        EngineParams.newBuilder()
-            .setLatest(msgWep.getLatest())
-            .setDefaultContainer(msgWep.getDefaultContainer())
-            .setLaunchDir(msgWep.getLaunchDir())
-            .setRevision(msgWep.getRevision())
-            .setProjectDir(msgWep.getProjectDir())
-            .setWorkDir(msgWep.getWorkDir())
-            .setResume(msgWep.getResume())
-            .build();
-
-    return WfMgmtRunMsg.newBuilder()
-        .setRunId(run.getRunId())
-        .setState(run.getState())
-        .setWorkflowUrl(run.getWorkflowUrl())
-        .setWorkflowParamsJsonStr(run.getWorkflowParamsJsonStr())
-        .setWorkflowEngineParams(runWep)
-        .setTimestamp(run.getTimestamp())
-        .build();
-  }
+    static CheckInput of(WfMgmtRunMsg msg) {
+      return new CheckInput(msg.getRunId(), msg.getState(), msg);
+    }
 
-  private Run.EngineParams runEngParamFromMsg(EngineParams msgWep) {
-    return Run.EngineParams.builder()
-        .latest(msgWep.getLatest())
-        .defaultContainer(msgWep.getDefaultContainer())
-        .launchDir(msgWep.getLaunchDir())
-        .revision(msgWep.getRevision())
-        .projectDir(msgWep.getProjectDir())
-        .workDir(msgWep.getWorkDir())
-        .resume(msgWep.getResume())
-        .build();
+    static CheckInput ofStateOnly(String runId, RunState state) {
+      return new CheckInput(runId, state, null);
+    }
   }
 }
@@ -18,23 +18,45 @@
 
 package org.icgc.argo.workflow_management.gatekeeper.service;
 
+import static java.util.stream.Collectors.toList;
+
 import com.pivotal.rabbitmq.stream.Transaction;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.icgc.argo.workflow_management.streams.DisposableManager;
 import org.icgc.argo.workflow_management.streams.schema.WfMgmtRunMsg;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 /**
  * Functional interface taking two fluxes (one for gatekeeper input and other for weblog input
- * wfmgmtrunmsgs) and returning one merged flux of allowed wfmgmtrunmsgs
+ * wfmgmtrunmsgs) and returning one merged flux of allowed wfmgmtrunmsgs. With gatekeeper.batch
+ * enabled msgs are checked in batches, each written to the db in one transaction.
+ *
+ * <p>Msgs are dispatched to a fixed number of lanes by hash of their runId, each lane checking its
+ * msgs one at a time on its own thread. The msgs of a run are checked in the order they came in,
+ * while different runs are checked in parallel.
  */
 @Slf4j
-@Profile("gatekeeper")
+@Profile("gatekeeper & !r2dbc")
 @Component
 @RequiredArgsConstructor
 public class GatekeeperProcessor
@@ -42,7 +64,46 @@ public class GatekeeperProcessor
         Flux<Transaction<WfMgmtRunMsg>>,
         Flux<Transaction<WfMgmtRunMsg>>,
         Flux<Transaction<WfMgmtRunMsg>>> {
+  public static final String LANE_PENDING_METRIC = "gatekeeper.lane.pending";
+
   private final GateKeeperService service;
+  private final DisposableManager disposableManager;
+  private final MeterRegistry meterRegistry;
+
+  @Value("${gatekeeper.lanes:4}")
+  private Integer lanes;
+
+  @Value("${gatekeeper.batch.enabled:false}")
+  private boolean batchEnabled;
+
+  @Value("${gatekeeper.batch.maxSize:100}")
+  private Integer batchMaxSize;
+
+  @Value("${gatekeeper.batch.window:50}")
+  private Long batchWindow; // milliseconds
+
+  // State
+  private Scheduler laneScheduler;
+  private AtomicInteger[] lanePending;
+
+  @PostConstruct
+  public void init() {
+    this.laneScheduler =
+        Schedulers.newBoundedElastic(lanes, Integer.MAX_VALUE, "gatekeeper-lane");
+    this.lanePending = new AtomicInteger[lanes];
+    for (int i = 0; i < lanes; i++) {
+      lanePending[i] = new AtomicInteger();
+      Gauge.builder(LANE_PENDING_METRIC, lanePending[i], AtomicInteger::get)
+          .description("Msgs dispatched to the gatekeeper lane and not checked yet")
+          .tag("lane", String.valueOf(i))
+          .register(meterRegistry);
+    }
+  }
+
+  @PreDestroy
+  public void dispose() {
+    laneScheduler.dispose();
+  }
 
   @Override
   public Flux<Transaction<WfMgmtRunMsg>> apply(
@@ -55,24 +116,15 @@ public class GatekeeperProcessor
 
   private Function<Flux<Transaction<WfMgmtRunMsg>>, Flux<Transaction<WfMgmtRunMsg>>>
       getWeblogInputMsgsTransformer() {
+    // WeblogEvents only change run state in gatekeeper service, not other params
     return transactionFlux ->
         transactionFlux
             .doOnNext(tx -> log.debug("GateKeeperConsumer Received: " + tx.get()))
-            .handle(
-                (tx, sink) -> {
-                  val msg = tx.get();
-                  // WeblogEvents only change run state in gatekeeper service, not other params
-                  val allowedMsg =
-                      service.checkWithExistingAndUpdateStateOnly(msg.getRunId(), msg.getState());
-                  log.debug("getWeblogInputMsgsTransformer:allowedMsg: {}", allowedMsg);
-                  if (allowedMsg.isEmpty()) {
-                    tx.reject();
-                    log.debug("WeblogConsumer - Gatekeeper Rejected: {}, YOU SHALL NOT PASS!", msg);
-                    return;
-                  }
-
-                  sink.next(tx.map(allowedMsg.get()));
-                });
+            .transform(
+                inLanes(
+                    check(
+                        service::checkWithExistingAndUpdateStatesOnly,
+                        "WeblogConsumer - Gatekeeper Rejected: {}, YOU SHALL NOT PASS!")));
   }
 
   private Function<Flux<Transaction<WfMgmtRunMsg>>, Flux<Transaction<WfMgmtRunMsg>>>
@@ -80,19 +132,89 @@ public class GatekeeperProcessor
     return fluxOfInterest ->
         fluxOfInterest
             .doOnNext(tx -> log.debug("GateKeeperConsumer Received: " + tx.get()))
-            .handle(
-                (tx, sink) -> {
-                  val msg = tx.get();
-                  val allowedMsg = service.checkWfMgmtRunMsgAndUpdate(msg);
-                  log.debug("getGateKeeperInputMsgTransformer:allowedMsg: {}", allowedMsg);
-                  if (allowedMsg.isEmpty()) {
-                    tx.reject();
-                    log.debug(
-                        "GateKeeperConsumer - Gatekeeper Rejected: {}, YOU SHALL NOT PASS!", msg);
-                    return;
+            .transform(
+                inLanes(
+                    check(
+                        service::checkWfMgmtRunMsgsAndUpdate,
+                        "GateKeeperConsumer - Gatekeeper Rejected: {}, YOU SHALL NOT PASS!")));
+  }
+
+  /** Splits the txs into lanes by runId, applying the transformer to each lane on its own thread */
+  private Function<Flux<Transaction<WfMgmtRunMsg>>, Flux<Transaction<WfMgmtRunMsg>>> inLanes(
+      Function<Flux<Transaction<WfMgmtRunMsg>>, Flux<Transaction<WfMgmtRunMsg>>> transformer) {
+    return transactionFlux ->
+        transactionFlux
+            .groupBy(tx -> Math.floorMod(tx.get().getRunId().hashCode(), lanes))
+            .flatMap(
+                lane -> {
+                  val pending = lanePending[lane.key()];
+                  return lane.doOnNext(tx -> pending.incrementAndGet())
+                      .publishOn(laneScheduler)
+                      .doOnNext(tx -> pending.decrementAndGet())
+                      .transform(transformer);
+                },
+                lanes);
+  }
+
+  /**
+   * Checks txs one by one, or in batches when enabled, passing on allowed ones with their next
+   * state and rejecting the others
+   */
+  private Function<Flux<Transaction<WfMgmtRunMsg>>, Flux<Transaction<WfMgmtRunMsg>>> check(
+      Function<List<WfMgmtRunMsg>, List<Optional<WfMgmtRunMsg>>> checkMsgs, String rejectedLog) {
+    final BiConsumer<Transaction<WfMgmtRunMsg>, SynchronousSink<Transaction<WfMgmtRunMsg>>>
+        checkOne =
+            (tx, sink) -> {
+              val allowedMsg = checkMsgs.apply(List.of(tx.get())).get(0);
+              log.debug("allowedMsg: {}", allowedMsg);
+              if (allowedMsg.isEmpty()) {
+                reject(tx, rejectedLog);
+                return;
+              }
+
+              sink.next(tx.map(allowedMsg.get()));
+            };
+
+    if (!batchEnabled) {
+      return transactionFlux -> transactionFlux.handle(checkOne);
+    }
+    return transactionFlux ->
+        transactionFlux
+            // timed out batches are emitted on the lane scheduler too, they block on the db
+            .bufferTimeout(batchMaxSize, Duration.ofMillis(batchWindow), laneScheduler)
+            .concatMap(
+                txs -> {
+                  final List<Optional<WfMgmtRunMsg>> allowedMsgs;
+                  try {
+                    allowedMsgs =
+                        checkMsgs.apply(txs.stream().map(Transaction::get).collect(toList()));
+                  } catch (RuntimeException e) {
+                    // nothing of the batch was written, so each tx can still be checked alone
+                    log.warn(
+                        "Checking batch of {} msgs failed, checking them one by one",
+                        txs.size(),
+                        e);
+                    return Flux.fromIterable(txs).handle(checkOne);
                   }
 
-                  sink.next(tx.map(allowedMsg.get()));
+                  val allowedTxs = new ArrayList<Transaction<WfMgmtRunMsg>>(txs.size());
+                  for (int i = 0; i < txs.size(); i++) {
+                    val tx = txs.get(i);
+                    val allowedMsg = allowedMsgs.get(i);
+                    if (allowedMsg.isEmpty()) {
+                      reject(tx, rejectedLog);
+                    } else {
+                      allowedTxs.add(tx.map(allowedMsg.get()));
+                    }
+                  }
+                  return Flux.fromIterable(allowedTxs);
                 });
   }
+
+  private void reject(Transaction<WfMgmtRunMsg> tx, String rejectedLog) {
+    tx.reject();
+    // in flight since it was received, see GateKeeperStreamsConfig
+    disposableManager.releaseTransaction();
+    log.debug(rejectedLog, tx.get());
+  }
 }
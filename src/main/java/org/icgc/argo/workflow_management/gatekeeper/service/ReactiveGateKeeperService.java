@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.gatekeeper.service;
+
+import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toList;
+import static org.icgc.argo.workflow_management.gatekeeper.service.RunConverters.runEngParamFromMsg;
+import static org.icgc.argo.workflow_management.gatekeeper.service.RunConverters.runFromMsg;
+import static org.icgc.argo.workflow_management.gatekeeper.service.StateTransition.TERMINAL_STATES;
+import static org.icgc.argo.workflow_management.gatekeeper.service.StateTransition.currentStatesByNextState;
+import static org.icgc.argo.workflow_management.streams.schema.RunState.QUEUED;
+import static org.icgc.argo.workflow_management.util.JacksonUtils.toJsonString;
+
+import io.r2dbc.postgresql.codec.Json;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc.argo.workflow_management.gatekeeper.model.Run;
+import org.icgc.argo.workflow_management.gatekeeper.model.RunRecord;
+import org.icgc.argo.workflow_management.gatekeeper.repository.ReactiveActiveRunsRepo;
+import org.icgc.argo.workflow_management.streams.schema.RunState;
+import org.icgc.argo.workflow_management.streams.schema.WfMgmtRunMsg;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.relational.core.query.Criteria;
+import org.springframework.data.relational.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking variant of GateKeeperService over R2DBC, for the gatekeeper running with the r2dbc
+ * profile. Transitions aren't checked against a run read beforehand, each one is a single statement
+ * that only matches the run while it's in a state the transition is allowed from, so a run changed
+ * concurrently by the other stream simply doesn't match.
+ */
+@Profile("gatekeeper & r2dbc")
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReactiveGateKeeperService {
+  // columns that can be searched by example, the json ones can't be compared for equality
+  private static final Map<String, Function<Run, Object>> SEARCHABLE_COLUMNS =
+      Map.of(
+          "runId", Run::getRunId,
+          "workflowUrl", Run::getWorkflowUrl,
+          "workflowType", Run::getWorkflowType,
+          "workflowTypeVersion", Run::getWorkflowTypeVersion,
+          "state", Run::getState,
+          "timestamp", Run::getTimestamp);
+
+  private final ReactiveActiveRunsRepo repo;
+  private final R2dbcEntityTemplate template;
+
+  /**
+   * Checks if msg is moving run to a valid next state for an active run.
+   *
+   * @return mono of the msg with nextState if allowed, empty if not
+   */
+  public Mono<WfMgmtRunMsg> checkWfMgmtRunMsgAndUpdate(WfMgmtRunMsg msg) {
+    return transition(msg.getRunId(), msg.getState(), msg)
+        // no run to move, run is new
+        .switchIfEmpty(
+            Mono.defer(() -> msg.getState().equals(QUEUED) ? createRun(msg) : Mono.empty()));
+  }
+
+  /**
+   * Checks if inputState is moving exsisting run to a valid next state.
+   *
+   * @return mono of the msg with nextState if allowed, empty if not
+   */
+  public Mono<WfMgmtRunMsg> checkWithExistingAndUpdateStateOnly(
+      String runId, RunState inputState) {
+    return transition(runId, inputState, null)
+        .switchIfEmpty(
+            Mono.fromRunnable(
+                () ->
+                    log.debug(
+                        "Active Run not found or not allowed into state, so not updated: {} {}",
+                        runId,
+                        inputState)));
+  }
+
+  public Mono<Page<Run>> getRuns(Run example, Pageable pageable) {
+    val query = Query.query(exampleCriteria(example));
+    return Mono.zip(
+            template
+                .select(query.with(pageable), RunRecord.class)
+                .map(RunRecord::toRun)
+                .collectList(),
+            template.count(query, RunRecord.class))
+        .map(runsAndTotal -> new PageImpl<>(runsAndTotal.getT1(), pageable, runsAndTotal.getT2()));
+  }
+
+  public Mono<Boolean> removeRun(String runId) {
+    return repo.deleteById(runId).thenReturn(true);
+  }
+
+  private Mono<WfMgmtRunMsg> createRun(WfMgmtRunMsg msg) {
+    val newRun = RunRecord.of(runFromMsg(msg));
+    return repo.insertIfAbsent(
+            newRun.getRunId(),
+            newRun.getState().name(),
+            newRun.getWorkflowUrl(),
+            newRun.getWorkflowParamsJsonStr(),
+            newRun.getWorkflowEngineParams(),
+            newRun.getTimestamp())
+        .doOnNext(createdRun -> log.debug("Active Run created: {}", createdRun))
+        // empty if the run already exists, so a duplicate QUEUED msg is rejected
+        .map(createdRun -> msg);
+  }
+
+  /**
+   * Moves the run into the state inputState leads to from the state it's in. There's one statement
+   * per state inputState can lead to, each only matching the run while it's in one of the states
+   * leading there, so at most one of them matches. Runs moving into terminal states are deleted.
+   *
+   * @param msg to update the run's params from, null to only update its state
+   * @return mono of the msg with nextState if the run was moved, empty if not
+   */
+  private Mono<WfMgmtRunMsg> transition(String runId, RunState inputState, WfMgmtRunMsg msg) {
+    return Flux.fromIterable(currentStatesByNextState(inputState).entrySet())
+        .concatMap(
+            currentStatesForNext -> {
+              val nextState = currentStatesForNext.getKey();
+              val currentStates = names(currentStatesForNext.getValue());
+              if (TERMINAL_STATES.contains(nextState)) {
+                return repo.deleteIfIn(runId, currentStates)
+                    .map(deletedRun -> deletedRun.toBuilder().state(nextState).build())
+                    .doOnNext(removedRun -> log.debug("Active Run removed: {}", removedRun));
+              }
+              val updated =
+                  msg == null
+                      ? repo.updateStateIfIn(runId, currentStates, nextState.name())
+                      : repo.updateRunIfIn(
+                          runId,
+                          currentStates,
+                          nextState.name(),
+                          Json.of(
+                              toJsonString(runEngParamFromMsg(msg.getWorkflowEngineParams()))),
+                          ofNullable(msg.getWorkflowParamsJsonStr()).map(Json::of).orElse(null));
+              return updated.doOnNext(
+                  updatedRun -> log.debug("Active Run updated: {}", updatedRun));
+            })
+        .next()
+        .map(RunRecord::toRun)
+        .map(RunConverters::msgFromRun);
+  }
+
+  private static List<String> names(Set<RunState> states) {
+    return states.stream().map(RunState::name).collect(toList());
+  }
+
+  private static Criteria exampleCriteria(Run example) {
+    Criteria criteria = Criteria.empty();
+    if (example == null) {
+      return criteria;
+    }
+    for (val column : SEARCHABLE_COLUMNS.entrySet()) {
+      val value = column.getValue().apply(example);
+      if (Objects.nonNull(value)) {
+        criteria = criteria.and(column.getKey()).is(value);
+      }
+    }
+    return criteria;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.gatekeeper.service;
+
+import static org.icgc.argo.workflow_management.gatekeeper.service.GatekeeperProcessor.LANE_PENDING_METRIC;
+
+import com.pivotal.rabbitmq.stream.Transaction;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc.argo.workflow_management.streams.DisposableManager;
+import org.icgc.argo.workflow_management.streams.schema.WfMgmtRunMsg;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * GatekeeperProcessor over the non-blocking ReactiveGateKeeperService. Msgs are still dispatched to
+ * lanes by hash of their runId to keep the msgs of a run in order, but lanes don't need threads of
+ * their own.
+ */
+@Slf4j
+@Profile("gatekeeper & r2dbc")
+@Component
+@RequiredArgsConstructor
+public class ReactiveGatekeeperProcessor
+    implements BiFunction<
+        Flux<Transaction<WfMgmtRunMsg>>,
+        Flux<Transaction<WfMgmtRunMsg>>,
+        Flux<Transaction<WfMgmtRunMsg>>> {
+  private final ReactiveGateKeeperService service;
+  private final DisposableManager disposableManager;
+  private final MeterRegistry meterRegistry;
+
+  @Value("${gatekeeper.lanes:4}")
+  private Integer lanes;
+
+  // State
+  private AtomicInteger[] lanePending;
+
+  @PostConstruct
+  public void init() {
+    this.lanePending = new AtomicInteger[lanes];
+    for (int i = 0; i < lanes; i++) {
+      lanePending[i] = new AtomicInteger();
+      Gauge.builder(LANE_PENDING_METRIC, lanePending[i], AtomicInteger::get)
+          .description("Msgs dispatched to the gatekeeper lane and not checked yet")
+          .tag("lane", String.valueOf(i))
+          .register(meterRegistry);
+    }
+  }
+
+  @Override
+  public Flux<Transaction<WfMgmtRunMsg>> apply(
+      Flux<Transaction<WfMgmtRunMsg>> msgFluxFromGatekeeperInput,
+      Flux<Transaction<WfMgmtRunMsg>> msgFluxFromWeblog) {
+    return Flux.merge(
+        msgFluxFromGatekeeperInput.transform(
+            check(
+                service::checkWfMgmtRunMsgAndUpdate,
+                "GateKeeperConsumer - Gatekeeper Rejected: {}, YOU SHALL NOT PASS!")),
+        // WeblogEvents only change run state in gatekeeper service, not other params
+        msgFluxFromWeblog.transform(
+            check(
+                msg -> service.checkWithExistingAndUpdateStateOnly(msg.getRunId(), msg.getState()),
+                "WeblogConsumer - Gatekeeper Rejected: {}, YOU SHALL NOT PASS!")));
+  }
+
+  private Function<Flux<Transaction<WfMgmtRunMsg>>, Flux<Transaction<WfMgmtRunMsg>>> check(
+      Function<WfMgmtRunMsg, Mono<WfMgmtRunMsg>> checkMsg, String rejectedLog) {
+    return transactionFlux ->
+        transactionFlux
+            .doOnNext(tx -> log.debug("GateKeeperConsumer Received: " + tx.get()))
+            .groupBy(tx -> Math.floorMod(tx.get().getRunId().hashCode(), lanes))
+            .flatMap(
+                lane -> {
+                  val pending = lanePending[lane.key()];
+                  // one msg at a time per lane, flatMap rather than concatMap so that errors go
+                  // to onErrorContinue with their tx
+                  return lane.doOnNext(tx -> pending.incrementAndGet())
+                      .flatMap(
+                          tx ->
+                              Mono.defer(
+                                      () -> {
+                                        pending.decrementAndGet();
+                                        return checkMsg.apply(tx.get());
+                                      })
+                                  .map(tx::map)
+                                  .switchIfEmpty(Mono.fromRunnable(() -> reject(tx, rejectedLog))),
+                          1);
+                },
+                lanes);
+  }
+
+  private void reject(Transaction<WfMgmtRunMsg> tx, String rejectedLog) {
+    tx.reject();
+    // in flight since it was received, see GateKeeperStreamsConfig
+    disposableManager.releaseTransaction();
+    log.debug(rejectedLog, tx.get());
+  }
+}
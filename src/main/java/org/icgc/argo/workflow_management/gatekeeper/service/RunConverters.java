@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.gatekeeper.service;
+
+import lombok.experimental.UtilityClass;
+import lombok.val;
+import org.icgc.argo.workflow_management.gatekeeper.model.Run;
+import org.icgc.argo.workflow_management.streams.schema.EngineParams;
+import org.icgc.argo.workflow_management.streams.schema.WfMgmtRunMsg;
+
+/** Conversions between run msgs and the active runs kept by the gatekeeper */
+@UtilityClass
+public class RunConverters {
+  public static Run runFromMsg(WfMgmtRunMsg msg) {
+    val msgWep = msg.getWorkflowEngineParams();
+    val runWep =
+        Run.EngineParams.builder()
+            .latest(msgWep.getLatest())
+            .defaultContainer(msgWep.getDefaultContainer())
+            .launchDir(msgWep.getLaunchDir())
+            .revision(msgWep.getRevision())
+            .projectDir(msgWep.getProjectDir())
+            .workDir(msgWep.getWorkDir())
+            .resume(msgWep.getResume())
+            .build();
+
+    return Run.builder()
+        .runId(msg.getRunId())
+        .state(msg.getState())
+        .workflowUrl(msg.getWorkflowUrl())
+        .workflowParamsJsonStr(msg.getWorkflowParamsJsonStr())
+        .workflowEngineParams(runWep)
+        .timestamp(msg.getTimestamp())
+        .build();
+  }
+
+  public static WfMgmtRunMsg msgFromRun(Run run) {
+    if (run == null) return null;
+
+    val msgWep = run.getWorkflowEngineParams();
+    val runWep =
+        EngineParams.newBuilder()
+            .setLatest(msgWep.getLatest())
+            .setDefaultContainer(msgWep.getDefaultContainer())
+            .setLaunchDir(msgWep.getLaunchDir())
+            .setRevision(msgWep.getRevision())
+            .setProjectDir(msgWep.getProjectDir())
+            .setWorkDir(msgWep.getWorkDir())
+            .setResume(msgWep.getResume())
+            .build();
+
+    return WfMgmtRunMsg.newBuilder()
+        .setRunId(run.getRunId())
+        .setState(run.getState())
+        .setWorkflowUrl(run.getWorkflowUrl())
+        .setWorkflowParamsJsonStr(run.getWorkflowParamsJsonStr())
+        .setWorkflowEngineParams(runWep)
+        .setTimestamp(run.getTimestamp())
+        .build();
+  }
+
+  public static Run.EngineParams runEngParamFromMsg(EngineParams msgWep) {
+    return Run.EngineParams.builder()
+        .latest(msgWep.getLatest())
+        .defaultContainer(msgWep.getDefaultContainer())
+        .launchDir(msgWep.getLaunchDir())
+        .revision(msgWep.getRevision())
+        .projectDir(msgWep.getProjectDir())
+        .workDir(msgWep.getWorkDir())
+        .resume(msgWep.getResume())
+        .build();
+  }
+}
@@ -23,6 +23,7 @@ import static org.icgc.argo.workflow_management.streams.schema.RunState.*;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import lombok.experimental.UtilityClass;
 import org.icgc.argo.workflow_management.streams.schema.RunState;
 
@@ -35,6 +36,10 @@ import org.icgc.argo.workflow_management.streams.schema.RunState;
  */
 @UtilityClass
 public class StateTransition {
+  // Run moving into terminal states is removed from db because it's at the end of its lifecycle
+  public static final Set<RunState> TERMINAL_STATES =
+      Set.of(SYSTEM_ERROR, EXECUTOR_ERROR, CANCELED, COMPLETE);
+
   private static final Map<RunState, Set<RunState>> RUN_TO_INPUT_STATE_LOOKUP =
       Map.of(
           QUEUED, Set.of(INITIALIZING, CANCELING, CANCELED, SYSTEM_ERROR),
@@ -65,4 +70,25 @@ public class StateTransition {
       return Optional.empty();
     }
   }
+
+  /**
+   * The rules of nextState turned around for one inputState, so that a transition can be applied as
+   * a compare-and-set on the current state.
+   *
+   * @param inputState The input RunState trying to change the current RunState.
+   * @return the states inputState can move a run to, each with the current states it moves there
+   *     from. Empty if inputState can't move a run out of any state.
+   */
+  public static Map<RunState, Set<RunState>> currentStatesByNextState(RunState inputState) {
+    return RUN_TO_INPUT_STATE_LOOKUP.keySet().stream()
+        .flatMap(
+            currentState ->
+                nextState(currentState, inputState)
+                    .map(next -> Map.entry(next, currentState))
+                    .stream())
+        .collect(
+            Collectors.groupingBy(
+                Map.Entry::getKey,
+                Collectors.mapping(Map.Entry::getValue, Collectors.toUnmodifiableSet())));
+  }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.health;
+
+import lombok.RequiredArgsConstructor;
+import org.icgc.argo.workflow_management.streams.WebLogEventSender;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.ReactiveHealthIndicator;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reports the state of the web-log circuit breaker and outbox. The service stays UP while the
+ * circuit is open since async events are kept in the outbox until web-log recovers.
+ */
+@Component
+@RequiredArgsConstructor
+public class WebLogHealthIndicator implements ReactiveHealthIndicator {
+
+  private final WebLogEventSender webLogEventSender;
+
+  @Override
+  public Mono<Health> health() {
+    return Mono.fromSupplier(
+        () ->
+            Health.up()
+                .withDetail("circuit", webLogEventSender.getCircuitBreaker().getState())
+                .withDetail(
+                    "consecutiveFailures",
+                    webLogEventSender.getCircuitBreaker().getConsecutiveFailures())
+                .withDetail("outboxBacklog", webLogEventSender.getOutboxBacklog())
+                .build());
+  }
+}
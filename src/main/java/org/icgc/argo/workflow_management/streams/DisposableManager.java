@@ -24,20 +24,109 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 import lombok.Getter;
 import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Component;
 import reactor.core.Disposable;
 
+/**
+ * Holds the stream disposables and drains them on shutdown: once stopped no new tx is taken on,
+ * the txs in flight get until drainTimeout to be committed or rejected, then the streams are
+ * disposed. Txs left unacked while draining are redelivered to the next instance.
+ */
+@Slf4j
 @Component
-public class DisposableManager {
-  public static final String WES_CONSUMER = "WESConsumer";
+public class DisposableManager implements SmartLifecycle {
+  public static final String WES_INITIALIZING_CONSUMER = "WESInitializingConsumer";
+  public static final String WES_CANCELING_CONSUMER = "WESCancelingConsumer";
+  public static final String WES_CANCEL_RETRY_PRODUCER = "WESCancelRetryProducer";
   public static final String GATEKEEPER_PRODUCER = "gatekeeperProducer";
 
+  @Value("${streams.shutdown.drainTimeout:30000}")
+  private Long drainTimeout; // milliseconds
+
   @Getter
   private final Map<String, Disposable> disposablesRegistry =
       Collections.synchronizedMap(new HashMap<>());
 
+  // State
+  private boolean running;
+  private boolean draining;
+  private int inFlight;
+
   @SneakyThrows
   public void registerDisposable(String name, Callable<Disposable> disposableCallable) {
     this.disposablesRegistry.put(name, disposableCallable.call());
   }
+
+  /**
+   * Takes on a tx unless draining, in which case it should be left unacked
+   *
+   * @return true if the tx was taken on, in which case releaseTransaction must be called once it's
+   *     committed or rejected
+   */
+  public synchronized boolean tryAcquireTransaction() {
+    if (draining) {
+      return false;
+    }
+    inFlight++;
+    return true;
+  }
+
+  /** Takes on a tx that can't be left unacked, like one from an in-memory source */
+  public synchronized void acquireTransaction() {
+    inFlight++;
+  }
+
+  public synchronized void releaseTransaction() {
+    inFlight--;
+    if (inFlight == 0) {
+      notifyAll();
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    drain();
+    disposablesRegistry.forEach(
+        (name, disposable) -> {
+          log.info("Disposing {}", name);
+          disposable.dispose();
+        });
+    synchronized (this) {
+      running = false;
+    }
+  }
+
+  @Override
+  public synchronized boolean isRunning() {
+    return running;
+  }
+
+  private synchronized void drain() {
+    draining = true;
+    log.info("Draining {} transactions in flight", inFlight);
+    val deadline = System.currentTimeMillis() + drainTimeout;
+    long remaining = drainTimeout;
+    while (inFlight > 0 && remaining > 0) {
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      remaining = deadline - System.currentTimeMillis();
+    }
+    if (inFlight > 0) {
+      log.warn(
+          "Gave up draining after {} ms, {} transactions still in flight", drainTimeout, inFlight);
+    }
+  }
 }
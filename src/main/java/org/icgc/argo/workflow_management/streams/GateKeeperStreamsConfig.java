@@ -29,13 +29,13 @@ import com.pivotal.rabbitmq.source.OnDemandSource;
 import com.pivotal.rabbitmq.stream.Transaction;
 import java.util.Set;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import javax.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.icgc.argo.workflow_management.config.rabbitmq.RabbitSchemaConfig;
-import org.icgc.argo.workflow_management.gatekeeper.service.GatekeeperProcessor;
 import org.icgc.argo.workflow_management.streams.model.WeblogEvent;
 import org.icgc.argo.workflow_management.streams.schema.RunState;
 import org.icgc.argo.workflow_management.streams.schema.WfMgmtRunMsg;
@@ -72,7 +72,12 @@ public class GateKeeperStreamsConfig {
   private String consumerQueueName;
 
   private final RabbitEndpointService rabbit;
-  private final GatekeeperProcessor processor;
+  // GatekeeperProcessor, or ReactiveGatekeeperProcessor with the r2dbc profile
+  private final BiFunction<
+          Flux<Transaction<WfMgmtRunMsg>>,
+          Flux<Transaction<WfMgmtRunMsg>>,
+          Flux<Transaction<WfMgmtRunMsg>>>
+      processor;
   private final WebLogEventSender webLogEventSender;
   private final DisposableManager disposableManager;
 
@@ -91,11 +96,16 @@ public class GateKeeperStreamsConfig {
   private Disposable createGatekeeperProducer() {
     val gatekeeperInputMsgsFlux = createGatekeeperInputFlux();
 
-    val weblogInputMsgsFlux = weblogSourceSink.source();
+    val weblogInputMsgsFlux =
+        weblogSourceSink
+            .source()
+            // in flight from here until it's committed or rejected
+            .doOnNext(tx -> disposableManager.acquireTransaction());
 
     val processedFlux =
         processor
             .apply(gatekeeperInputMsgsFlux, weblogInputMsgsFlux)
+            .onErrorContinue(handleError())
             .flatMap(
                 tx -> {
                   if (RUN_STATES_TO_WEBLOG.contains(tx.get().getState())) {
@@ -114,6 +124,7 @@ public class GateKeeperStreamsConfig {
             tx -> {
               log.debug("GateKeeperProducer Sent: {}", tx.get());
               tx.commit();
+              disposableManager.releaseTransaction();
             });
   }
 
@@ -136,7 +147,10 @@ public class GateKeeperStreamsConfig {
   private Flux<Transaction<WfMgmtRunMsg>> createGatekeeperInputFlux() {
     return createTransConsumerStream(
             rabbit, consumerTopicExchangeName, consumerQueueName, ROUTING_KEY)
-        .receive();
+        .receive()
+        // msgs received while draining for shutdown are left unacked for the next instance, the
+        // others are in flight from here until they're committed, or rejected by the processor
+        .filter(tx -> disposableManager.tryAcquireTransaction());
   }
 
   private BiConsumer<Throwable, Object> handleError() {
@@ -149,6 +163,7 @@ public class GateKeeperStreamsConfig {
         log.info("SYSTEM_ERROR: {}", msg);
         webLogEventSender.sendWfMgmtEventAsync(createWfMgmtEvent(msg));
         ((Transaction<?>) tx).reject();
+        disposableManager.releaseTransaction();
       } else {
         log.error("Can't get WfMgmtRunMsg, transaction is lost!");
       }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.streams;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc.argo.workflow_management.exception.WebLogEventRejectedException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+/**
+ * Coalesces web-log events submitted within a window, or up to a maximum batch size, into a single
+ * request. Batches are sent one after the other in submission order, so events of the same run
+ * are delivered in order, and each event's own success is reported back to its submitter.
+ */
+@Slf4j
+public class WebLogBatcher implements Disposable {
+
+  // doesn't terminate when its subscriber cancels, so the batcher can resubscribe after an error
+  private final Sinks.Many<PendingEvent> events =
+      Sinks.many().multicast().onBackpressureBuffer(Queues.SMALL_BUFFER_SIZE, false);
+  private final Disposable subscription;
+
+  /**
+   * @param maxSize the maximum number of events in a batch
+   * @param window how long to wait for more events before sending a batch that isn't full
+   * @param batchSender sends a batch of events, returning the success of each event in order
+   */
+  public WebLogBatcher(
+      int maxSize, Duration window, Function<List<Object>, Mono<List<Boolean>>> batchSender) {
+    this.subscription =
+        events
+            .asFlux()
+            .bufferTimeout(maxSize, window)
+            // bufferTimeout errors once the batches waiting for the one being sent outnumber
+            // concatMap's prefetch, they are bounded by the submitters waiting on their events
+            .onBackpressureBuffer()
+            .concatMap(batch -> sendBatch(batch, batchSender))
+            .doOnError(t -> log.error("Web-log batcher failed, resubscribing", t))
+            .retry()
+            .subscribe();
+  }
+
+  /**
+   * Submit an event to be sent in the next batch
+   *
+   * @param event the event, or its json encoded bytes
+   * @return mono of true once the event has been sent, erroring if it couldn't be
+   */
+  public Mono<Boolean> submit(Object event) {
+    return Mono.defer(
+        () -> {
+          val result = Sinks.<Boolean>one();
+          val emitted = emit(new PendingEvent(event, result));
+          return emitted.isSuccess()
+              ? result.asMono()
+              : Mono.error(new IllegalStateException("Web-log batcher is closed: " + emitted));
+        });
+  }
+
+  @Override
+  public void dispose() {
+    events.tryEmitComplete();
+    subscription.dispose();
+  }
+
+  @Override
+  public boolean isDisposed() {
+    return subscription.isDisposed();
+  }
+
+  // the sink doesn't allow concurrent emissions
+  private synchronized Sinks.EmitResult emit(PendingEvent event) {
+    return events.tryEmitNext(event);
+  }
+
+  private Mono<Void> sendBatch(
+      List<PendingEvent> batch, Function<List<Object>, Mono<List<Boolean>>> batchSender) {
+    log.debug("Sending batch of {} web-log events", batch.size());
+    val body = batch.stream().map(PendingEvent::getEvent).collect(Collectors.toList());
+    return Mono.defer(() -> batchSender.apply(body))
+        .defaultIfEmpty(List.of())
+        .doOnNext(
+            results -> {
+              for (int i = 0; i < batch.size(); i++) {
+                val result = batch.get(i).getResult();
+                if (i < results.size() && Boolean.TRUE.equals(results.get(i))) {
+                  result.tryEmitValue(true);
+                } else {
+                  log.info("*** Weblog rejected event! ***");
+                  result.tryEmitError(new WebLogEventRejectedException());
+                }
+              }
+            })
+        .doOnError(t -> batch.forEach(event -> event.getResult().tryEmitError(t)))
+        // one failed batch must not stop the batches after it
+        .onErrorResume(t -> Mono.empty())
+        .then();
+  }
+
+  @Value
+  private static class PendingEvent {
+    Object event;
+    Sinks.One<Boolean> result;
+  }
+}
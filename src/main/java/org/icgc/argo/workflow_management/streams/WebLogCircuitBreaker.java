@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.streams;
+
+import static org.icgc.argo.workflow_management.streams.WebLogOutbox.isRejected;
+
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import org.icgc.argo.workflow_management.exception.WebLogCircuitOpenException;
+import reactor.core.publisher.Mono;
+
+/**
+ * Stops calling the web-log service after too many consecutive failures. While open, calls fail
+ * fast with a {@link WebLogCircuitOpenException}. Once the open duration has passed a single probe
+ * call is let through (half open), closing the circuit if it succeeds or re-opening it if not.
+ * Events the web-log service rejected count as successes, it answered so it's up.
+ */
+@Slf4j
+public class WebLogCircuitBreaker {
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openDurationNanos;
+
+  // State, guarded by this
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openedAt;
+  private boolean probing = false;
+
+  public WebLogCircuitBreaker(int failureThreshold, Duration openDuration) {
+    this.failureThreshold = failureThreshold;
+    this.openDurationNanos = openDuration.toNanos();
+  }
+
+  /**
+   * Run a call through the circuit breaker
+   *
+   * @param call the call to the web-log service, subscribed to only if the circuit allows it
+   * @return the call, or a mono erroring with WebLogCircuitOpenException if the circuit is open
+   */
+  public <T> Mono<T> protect(Mono<T> call) {
+    return Mono.defer(
+        () ->
+            tryAcquire()
+                ? call.doOnSuccess(res -> onSuccess())
+                    .doOnError(this::onFailure)
+                    .doOnCancel(this::onCancel)
+                : Mono.error(new WebLogCircuitOpenException()));
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public synchronized int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  private synchronized boolean tryAcquire() {
+    if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+      log.info("Web-log circuit half open, probing");
+      state = State.HALF_OPEN;
+    }
+    if (state == State.HALF_OPEN) {
+      if (probing) {
+        return false;
+      }
+      probing = true;
+      return true;
+    }
+    return state == State.CLOSED;
+  }
+
+  private synchronized void onSuccess() {
+    if (state != State.CLOSED) {
+      log.info("Web-log circuit closed");
+    }
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    probing = false;
+  }
+
+  private synchronized void onFailure(Throwable t) {
+    if (isRejected(t)) {
+      onSuccess();
+      return;
+    }
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      if (state != State.OPEN) {
+        log.warn("Web-log circuit opened after {} consecutive failures", consecutiveFailures);
+      }
+      state = State.OPEN;
+      openedAt = System.nanoTime();
+      probing = false;
+    }
+  }
+
+  private synchronized void onCancel() {
+    // a cancelled probe neither closes nor re-opens the circuit, let another one through
+    probing = false;
+  }
+}
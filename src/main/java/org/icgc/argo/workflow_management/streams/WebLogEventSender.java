@@ -18,26 +18,43 @@
 
 package org.icgc.argo.workflow_management.streams;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.icgc.argo.workflow_management.config.weblog.WebLogClientConfig.WEBLOG_WEB_CLIENT;
+import static org.icgc.argo.workflow_management.streams.WebLogOutbox.isClientError;
+import static org.icgc.argo.workflow_management.util.JacksonUtils.toJsonBytes;
 import static org.icgc.argo.workflow_management.util.JacksonUtils.toJsonString;
 
+import com.fasterxml.jackson.databind.util.RawValue;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
 import java.util.Date;
+import java.util.List;
 import java.util.Objects;
 import java.util.TimeZone;
+import javax.annotation.PreDestroy;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import nextflow.Const;
 import nextflow.extension.Bolts;
+import org.icgc.argo.workflow_management.exception.WebLogCircuitOpenException;
+import org.icgc.argo.workflow_management.exception.WebLogEventRejectedException;
 import org.icgc.argo.workflow_management.streams.model.NextflowEvent;
 import org.icgc.argo.workflow_management.streams.model.WfManagementEvent;
 import org.icgc.argo.workflow_management.streams.model.WorkflowEvent;
 import org.icgc.argo.workflow_management.wes.model.NextflowMetadata;
 import org.icgc.argo.workflow_management.wes.model.RunParams;
 import org.icgc.argo.workflow_management.wes.model.WesState;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
 @Slf4j
 @Service
@@ -45,6 +62,55 @@ public class WebLogEventSender {
   @Value("${nextflow.weblogUrl}")
   String endpoint;
 
+  private final WebClient webClient;
+  @Getter private final WebLogCircuitBreaker circuitBreaker;
+  private final Retry retry;
+  private final Duration latencyBudget;
+  private final WebLogBatcher batcher; // null unless batching is enabled
+  private final WebLogOutbox outbox;
+
+  @Autowired
+  public WebLogEventSender(
+      @Qualifier(WEBLOG_WEB_CLIENT) WebClient webClient,
+      NextflowProperties config,
+      MeterRegistry meterRegistry) {
+    val weblogConfig = config.getWeblog();
+    this.webClient = webClient;
+    this.circuitBreaker =
+        new WebLogCircuitBreaker(
+            weblogConfig.getCircuitFailureThreshold(),
+            Duration.ofMillis(weblogConfig.getCircuitOpenDuration()));
+    this.retry =
+        Retry.backoff(
+                weblogConfig.getMaxRetries(), Duration.ofMillis(weblogConfig.getRetryBackoff()))
+            .jitter(0.5)
+            // events answered with false are retried too, the outbox drops them after that
+            .filter(t -> !(t instanceof WebLogCircuitOpenException) && !isClientError(t));
+    this.latencyBudget = Duration.ofMillis(weblogConfig.getLatencyBudget());
+    val batchConfig = weblogConfig.getBatch();
+    this.batcher =
+        batchConfig.isEnabled()
+            ? new WebLogBatcher(
+                batchConfig.getMaxSize(),
+                Duration.ofMillis(batchConfig.getWindow()),
+                events -> sendHttpBatch(batchConfig.getUrl(), events))
+            : null;
+    this.outbox =
+        new WebLogOutbox(config.getWeblog().getOutbox(), this::sendHttpMessage, meterRegistry);
+  }
+
+  public long getOutboxBacklog() {
+    return outbox.getBacklog();
+  }
+
+  @PreDestroy
+  public void close() {
+    outbox.close();
+    if (batcher != null) {
+      batcher.dispose();
+    }
+  }
+
   public void sendNextflowEventAsync(NextflowMetadata metadata, NextflowEvent event) {
     // This msg has to emulate a next flow event for it to be processed by workflow-relay.
     // The actual value of runId should be metadata.workflow.sessionId but that is always
@@ -59,69 +125,111 @@ public class WebLogEventSender {
             .metadata(metadata)
             .build();
 
-    sendHttpMessage(msg).subscribe();
+    outbox.add(msg.getRunName(), toJsonBytes(msg));
   }
 
+  // Async events go through the outbox so the events of a run are sent in order and survive
+  // web-log outages
+
   public void sendWfMgmtEventAsync(RunParams params, WesState stateForEvent) {
-    sendWfMgmtEvent(params, stateForEvent).subscribe();
+    outbox.add(params.getRunId(), toJsonBytes(createWfMgmtEvent(params, stateForEvent)));
   }
 
   public void sendWfMgmtEventAsync(String runId, WesState stateForEvent) {
-    sendWfMgmtEvent(runId, stateForEvent).subscribe();
+    outbox.add(runId, toJsonBytes(createWfMgmtEvent(runId, stateForEvent)));
   }
 
   public void sendWfMgmtEventAsync(WfManagementEvent event) {
-    sendWfMgmtEvent(event).subscribe();
+    outbox.add(event.getRunId(), toJsonBytes(event));
   }
 
   public Mono<Boolean> sendWfMgmtEvent(RunParams params, WesState stateForEvent) {
-    val event =
-        WfManagementEvent.builder()
-            .runId(params.getRunId())
-            .workflowUrl(params.getWorkflowUrl())
-            .workflowEngineParams(params.getWorkflowEngineParams())
-            .workflowParams(params.getWorkflowParams())
-            .event(stateForEvent.getValue())
-            .utcTime(nowInUtc())
-            .build();
-
-    return sendHttpMessage(event);
+    return sendHttpMessage(createWfMgmtEvent(params, stateForEvent));
   }
 
   public Mono<Boolean> sendWfMgmtEvent(String runId, WesState stateForEvent) {
-    val event =
-        WfManagementEvent.builder()
-            .runId(runId)
-            .event(stateForEvent.getValue())
-            .utcTime(nowInUtc())
-            .build();
-
-    return sendHttpMessage(event);
+    return sendHttpMessage(createWfMgmtEvent(runId, stateForEvent));
   }
 
   public Mono<Boolean> sendWfMgmtEvent(WfManagementEvent event) {
     return sendHttpMessage(event);
   }
 
+  private WfManagementEvent createWfMgmtEvent(RunParams params, WesState stateForEvent) {
+    return WfManagementEvent.builder()
+        .runId(params.getRunId())
+        .workflowUrl(params.getWorkflowUrl())
+        .workflowEngineParams(params.getWorkflowEngineParams())
+        .workflowParams(params.getWorkflowParams())
+        .event(stateForEvent.getValue())
+        .utcTime(nowInUtc())
+        .build();
+  }
+
+  private WfManagementEvent createWfMgmtEvent(String runId, WesState stateForEvent) {
+    return WfManagementEvent.builder()
+        .runId(runId)
+        .event(stateForEvent.getValue())
+        .utcTime(nowInUtc())
+        .build();
+  }
+
   private Mono<Boolean> sendHttpMessage(Object jsonReadyObject) {
     log.debug("sending event message to: {}", endpoint);
-    log.debug("jsonReadyObject: {}", toJsonString(jsonReadyObject));
-    return WebClient.create(endpoint)
-        .post()
-        .contentType(MediaType.APPLICATION_JSON)
-        .bodyValue(toJsonString(jsonReadyObject))
-        .retrieve()
-        .toEntity(Boolean.class)
-        .flatMap(
-            res -> {
-              // Don't want to proceed with stream if response from weblog is bad, so throw error
-              if (!res.getStatusCode().is2xxSuccessful() || !Objects.equals(res.getBody(), true)) {
-                log.info("*** Failed to send event to weblog! ***");
-                return Mono.error(new Exception("Failed to send event to weblog!"));
-              }
-              log.debug("Message sent to weblog: " + jsonReadyObject);
-              return Mono.just(res.getBody());
-            });
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "jsonReadyObject: {}",
+          jsonReadyObject instanceof byte[]
+              ? new String((byte[]) jsonReadyObject)
+              : toJsonString(jsonReadyObject));
+    }
+    if (batcher != null) {
+      return batcher.submit(
+          jsonReadyObject instanceof byte[]
+              ? new RawValue(new String((byte[]) jsonReadyObject, UTF_8))
+              : jsonReadyObject);
+    }
+
+    // encoded to json once, by the client's encoder, directly into the request body
+    val request =
+        webClient
+            .post()
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(jsonReadyObject)
+            .retrieve()
+            .toEntity(Boolean.class)
+            .flatMap(
+                res -> {
+                  // Don't want to proceed with stream if response from weblog is bad, so error
+                  if (!res.getStatusCode().is2xxSuccessful()) {
+                    log.info("*** Failed to send event to weblog! ***");
+                    return Mono.error(new Exception("Failed to send event to weblog!"));
+                  }
+                  if (!Objects.equals(res.getBody(), true)) {
+                    log.info("*** Weblog rejected event! ***");
+                    return Mono.error(new WebLogEventRejectedException());
+                  }
+                  log.debug("Message sent to weblog");
+                  return Mono.just(res.getBody());
+                });
+
+    // every attempt goes through the circuit breaker, so once it opens the remaining retries and
+    // any other sends fail fast instead of waiting on a web-log service that is known to be down
+    return circuitBreaker.protect(request).retryWhen(retry).timeout(latencyBudget);
+  }
+
+  /** Sends a batch of events as a json array, the response is the success of each event */
+  private Mono<List<Boolean>> sendHttpBatch(String batchUrl, List<Object> events) {
+    log.debug("sending batch of {} event messages to: {}", events.size(), batchUrl);
+    val request =
+        webClient
+            .post()
+            .uri(batchUrl)
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(events)
+            .retrieve()
+            .bodyToMono(new ParameterizedTypeReference<List<Boolean>>() {});
+    return circuitBreaker.protect(request).retryWhen(retry).timeout(latencyBudget);
   }
 
   private String nowInUtc() {
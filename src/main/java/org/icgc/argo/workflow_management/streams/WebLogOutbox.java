@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.streams;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc.argo.workflow_management.exception.WebLogEventRejectedException;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * Durable queue of events waiting to be sent to the web-log service. Events are appended to
+ * memory-mapped segment files and retried with backoff while the web-log service is down, so an
+ * outage delays events instead of losing them. Disk usage is bounded by segmentSize * maxSegments,
+ * events added past that are dropped.
+ *
+ * <p>Events are keyed by run id and dispatched to a fixed number of lanes by hash of their key.
+ * Each lane sends its events one at a time, so the events of a run are sent in the order they were
+ * added while unrelated runs are sent in parallel. The read position of the segments only moves
+ * past events once every event before them has been sent too, so after a restart no event is lost,
+ * though a few may be sent twice.
+ */
+@Slf4j
+public class WebLogOutbox implements Closeable {
+  public static final String BACKLOG_METRIC = "wes.weblog.outbox.backlog";
+  public static final String DROPPED_METRIC = "wes.weblog.outbox.dropped";
+
+  private final Path dir;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final int maxInFlight;
+  private final Duration minBackoff;
+  private final Duration maxBackoff;
+  private final Function<byte[], Mono<Boolean>> sender;
+  private final Counter dropped;
+  private final Lane[] lanes;
+
+  // State, segments, inFlight and the dispatch cursor are only accessed while holding segments
+  private final Deque<WebLogOutboxSegment> segments = new ArrayDeque<>();
+  private final Deque<InFlightEvent> inFlight = new ArrayDeque<>();
+  private WebLogOutboxSegment cursorSegment;
+  private int cursorPosition;
+  private final AtomicLong backlog = new AtomicLong();
+  private volatile boolean closed;
+
+  @SneakyThrows
+  public WebLogOutbox(
+      NextflowProperties.OutboxProperties config,
+      Function<byte[], Mono<Boolean>> sender,
+      MeterRegistry meterRegistry) {
+    this.dir = Path.of(config.getDir());
+    this.segmentSize = config.getSegmentSize();
+    this.maxSegments = config.getMaxSegments();
+    this.maxInFlight = config.getMaxInFlight();
+    this.minBackoff = Duration.ofMillis(config.getMinBackoff());
+    this.maxBackoff = Duration.ofMillis(config.getMaxBackoff());
+    this.sender = sender;
+    this.lanes = new Lane[config.getLanes()];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new Lane();
+    }
+
+    Gauge.builder(BACKLOG_METRIC, backlog, AtomicLong::get)
+        .description("Web-log events waiting in the outbox")
+        .register(meterRegistry);
+    this.dropped =
+        Counter.builder(DROPPED_METRIC)
+            .description("Web-log events dropped because the outbox was full")
+            .register(meterRegistry);
+
+    Files.createDirectories(dir);
+    recoverSegments();
+    dispatch();
+  }
+
+  /**
+   * Add an event to the outbox, it is sent once every event with the same key added before it has
+   * been sent
+   *
+   * @param key the key ordering events, the run id
+   * @param event the json encoded event
+   */
+  public void add(String key, byte[] event) {
+    val record = encodeRecord(key, event);
+    if (WebLogOutboxSegment.HEADER_SIZE + Integer.BYTES + record.length > segmentSize) {
+      log.error(
+          "Web-log event of {} bytes is larger than an outbox segment, dropping it", event.length);
+      dropped.increment();
+      return;
+    }
+    synchronized (segments) {
+      if (!appendToLastSegment(record)) {
+        log.error("Web-log outbox is full, dropping event of {} bytes", event.length);
+        dropped.increment();
+        return;
+      }
+      backlog.incrementAndGet();
+    }
+    dispatch();
+  }
+
+  public long getBacklog() {
+    return backlog.get();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    synchronized (segments) {
+      segments.forEach(
+          segment -> {
+            try {
+              segment.close();
+            } catch (IOException e) {
+              log.error(format("Failed to close web-log outbox segment %s", segment.getPath()), e);
+            }
+          });
+      segments.clear();
+    }
+  }
+
+  private void recoverSegments() throws IOException {
+    try (val files = Files.list(dir)) {
+      val segmentIds =
+          files
+              .map(file -> file.getFileName().toString())
+              .filter(name -> name.endsWith(".segment"))
+              .map(name -> Long.parseLong(name.substring(0, name.indexOf('.'))))
+              .sorted()
+              .collect(Collectors.toList());
+      for (val id : segmentIds) {
+        val segment = WebLogOutboxSegment.open(dir, id, segmentSize);
+        segments.addLast(segment);
+        backlog.addAndGet(segment.getUnreadRecords());
+      }
+    }
+    if (backlog.get() > 0) {
+      log.info("Recovered {} unsent events from web-log outbox {}", backlog.get(), dir);
+    }
+  }
+
+  private boolean appendToLastSegment(byte[] record) {
+    val last = segments.peekLast();
+    if (last != null && last.append(record)) {
+      return true;
+    }
+    if (segments.size() >= maxSegments) {
+      return false;
+    }
+    try {
+      val segment =
+          WebLogOutboxSegment.open(dir, last == null ? 0 : last.getId() + 1, segmentSize);
+      segments.addLast(segment);
+      return segment.append(record);
+    } catch (IOException e) {
+      log.error(format("Failed to create web-log outbox segment in %s", dir), e);
+      return false;
+    }
+  }
+
+  /** Hands the events after the dispatch cursor to their lanes, up to maxInFlight of them */
+  private void dispatch() {
+    val dispatched = new ArrayList<Lane>();
+    synchronized (segments) {
+      while (!closed && inFlight.size() < maxInFlight) {
+        val record = readAtCursor();
+        if (record.isEmpty()) {
+          break;
+        }
+        val event = decodeRecord(record.get());
+        inFlight.addLast(event);
+        val lane = lanes[Math.floorMod(event.getKey().hashCode(), lanes.length)];
+        lane.enqueue(event);
+        dispatched.add(lane);
+      }
+    }
+    dispatched.forEach(Lane::drain);
+  }
+
+  private Optional<byte[]> readAtCursor() {
+    if (cursorSegment == null) {
+      cursorSegment = segments.peekFirst();
+      if (cursorSegment == null) {
+        return Optional.empty();
+      }
+      cursorPosition = cursorSegment.getReadPosition();
+    }
+    Optional<byte[]> record = cursorSegment.read(cursorPosition);
+    if (record.isEmpty()) {
+      // move on to the next segment once this one has been fully dispatched
+      val next = nextSegment(cursorSegment);
+      if (next.isEmpty()) {
+        return Optional.empty();
+      }
+      cursorSegment = next.get();
+      cursorPosition = cursorSegment.getReadPosition();
+      record = cursorSegment.read(cursorPosition);
+    }
+    record.ifPresent(r -> cursorPosition = cursorSegment.nextPosition(cursorPosition));
+    return record;
+  }
+
+  private Optional<WebLogOutboxSegment> nextSegment(WebLogOutboxSegment segment) {
+    val it = segments.iterator();
+    while (it.hasNext()) {
+      if (it.next() == segment) {
+        return it.hasNext() ? Optional.of(it.next()) : Optional.empty();
+      }
+    }
+    return Optional.empty();
+  }
+
+  /** Marks an event as done, moving the read position past every event done before it */
+  private void complete(InFlightEvent event) {
+    synchronized (segments) {
+      if (closed) {
+        return;
+      }
+      event.done = true;
+      while (!inFlight.isEmpty() && inFlight.peekFirst().done) {
+        inFlight.removeFirst();
+        // a fully read head segment is kept while it's the only one, after a rollover the event
+        // belongs to the segment following it
+        deleteFullyReadSegments();
+        segments.peekFirst().advance();
+        backlog.decrementAndGet();
+        deleteFullyReadSegments();
+      }
+    }
+    dispatch();
+  }
+
+  /** Deletes the fully read segments at the head, the last segment is still being appended to */
+  private void deleteFullyReadSegments() {
+    while (segments.size() > 1 && segments.peekFirst().isFullyRead()) {
+      val first = segments.removeFirst();
+      if (cursorSegment == first) {
+        cursorSegment = null;
+      }
+      try {
+        first.delete();
+      } catch (IOException e) {
+        log.error(format("Failed to delete web-log outbox segment %s", first.getPath()), e);
+      }
+    }
+  }
+
+  private void send(Lane lane, InFlightEvent event) {
+    sender
+        .apply(event.getEvent())
+        .retryWhen(
+            Retry.backoff(Long.MAX_VALUE, minBackoff)
+                .maxBackoff(maxBackoff)
+                .filter(t -> !closed && !isRejected(t))
+                .doBeforeRetry(
+                    signal ->
+                        log.warn(
+                            "Failed to send web-log event of run {}, retrying (attempt {}): {}",
+                            event.getKey(),
+                            signal.totalRetries() + 1,
+                            signal.failure().getMessage())))
+        .subscribe(
+            sent -> {
+              complete(event);
+              lane.done();
+            },
+            t -> {
+              if (closed) {
+                return;
+              }
+              log.error(
+                  "Web-log rejected event, dropping it: {}",
+                  new String(event.getEvent(), UTF_8),
+                  t);
+              dropped.increment();
+              complete(event);
+              lane.done();
+            });
+  }
+
+  /**
+   * A 4xx response, or web-log answering false, means the event itself is bad, retrying it would
+   * block the outbox forever
+   */
+  static boolean isRejected(Throwable t) {
+    return isClientError(t) || t instanceof WebLogEventRejectedException;
+  }
+
+  static boolean isClientError(Throwable t) {
+    return t instanceof WebClientResponseException
+        && ((WebClientResponseException) t).getStatusCode().is4xxClientError();
+  }
+
+  private static byte[] encodeRecord(String key, byte[] event) {
+    val keyBytes = key.getBytes(UTF_8);
+    return ByteBuffer.allocate(Integer.BYTES + keyBytes.length + event.length)
+        .putInt(keyBytes.length)
+        .put(keyBytes)
+        .put(event)
+        .array();
+  }
+
+  private static InFlightEvent decodeRecord(byte[] record) {
+    val buffer = ByteBuffer.wrap(record);
+    val keyBytes = new byte[buffer.getInt()];
+    buffer.get(keyBytes);
+    val event = new byte[buffer.remaining()];
+    buffer.get(event);
+    return new InFlightEvent(new String(keyBytes, UTF_8), event);
+  }
+
+  @Getter
+  @RequiredArgsConstructor
+  private static class InFlightEvent {
+    private final String key;
+    private final byte[] event;
+    private boolean done; // guarded by segments
+  }
+
+  /** Sends its events one at a time, in the order they were dispatched to it */
+  private class Lane {
+    private final Queue<InFlightEvent> queue = new ArrayDeque<>();
+    private boolean sending = false;
+
+    synchronized void enqueue(InFlightEvent event) {
+      queue.add(event);
+    }
+
+    void drain() {
+      InFlightEvent next;
+      synchronized (this) {
+        if (sending || queue.isEmpty() || closed) {
+          return;
+        }
+        sending = true;
+        next = queue.peek();
+      }
+      send(this, next);
+    }
+
+    void done() {
+      synchronized (this) {
+        queue.poll();
+        sending = false;
+      }
+      drain();
+    }
+  }
+}
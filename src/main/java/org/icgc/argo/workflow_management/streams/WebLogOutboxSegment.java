@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.streams;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import lombok.Getter;
+import lombok.val;
+
+/**
+ * Append-only, memory-mapped file of length prefixed records. The first bytes of the file hold the
+ * position of the next record to read, so that a segment can be replayed from where it was left
+ * after a restart. A record's length is written after its bytes so a record torn by a crash is
+ * never read. Not thread safe, {@link WebLogOutbox} serializes access to its segments.
+ */
+class WebLogOutboxSegment implements Closeable {
+  static final int HEADER_SIZE = 8; // read position, followed by 4 unused bytes
+  private static final int LENGTH_SIZE = 4;
+
+  @Getter private final long id;
+  @Getter private final Path path;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private int readPosition;
+  private int writePosition;
+  @Getter private int unreadRecords;
+
+  private WebLogOutboxSegment(long id, Path path, int size) throws IOException {
+    this.id = id;
+    this.path = path;
+    this.channel = FileChannel.open(path, CREATE, READ, WRITE);
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+    this.readPosition = Math.max(buffer.getInt(0), HEADER_SIZE);
+    // find the end of the records written before the segment was last closed
+    int position = HEADER_SIZE;
+    while (position + LENGTH_SIZE <= size) {
+      val length = buffer.getInt(position);
+      if (length <= 0 || position + LENGTH_SIZE + length > size) {
+        break;
+      }
+      if (position >= readPosition) {
+        unreadRecords++;
+      }
+      position += LENGTH_SIZE + length;
+    }
+    this.writePosition = position;
+  }
+
+  static WebLogOutboxSegment open(Path dir, long id, int size) throws IOException {
+    return new WebLogOutboxSegment(id, dir.resolve(fileName(id)), size);
+  }
+
+  static String fileName(long id) {
+    return String.format("%020d.segment", id);
+  }
+
+  /**
+   * Append a record to the segment
+   *
+   * @param record the bytes of the record
+   * @return false if the segment doesn't have room for the record
+   */
+  boolean append(byte[] record) {
+    if (writePosition + LENGTH_SIZE + record.length > buffer.capacity()) {
+      return false;
+    }
+    val slice = buffer.duplicate();
+    slice.position(writePosition + LENGTH_SIZE);
+    slice.put(record);
+    buffer.putInt(writePosition, record.length);
+    writePosition += LENGTH_SIZE + record.length;
+    unreadRecords++;
+    return true;
+  }
+
+  /**
+   * Read the record at a position, which doesn't mark it as read
+   *
+   * @param position the position of a record, the read position or one returned by nextPosition
+   * @return the record, empty if no record has been written at that position yet
+   */
+  Optional<byte[]> read(int position) {
+    if (position >= writePosition) {
+      return Optional.empty();
+    }
+    val record = new byte[buffer.getInt(position)];
+    val slice = buffer.duplicate();
+    slice.position(position + LENGTH_SIZE);
+    slice.get(record);
+    return Optional.of(record);
+  }
+
+  /** @return the position of the record following the one at the given position */
+  int nextPosition(int position) {
+    return position + LENGTH_SIZE + buffer.getInt(position);
+  }
+
+  /** @return the position of the next unread record */
+  int getReadPosition() {
+    return readPosition;
+  }
+
+  /** Mark the next unread record as read */
+  void advance() {
+    if (readPosition >= writePosition) {
+      return;
+    }
+    readPosition = nextPosition(readPosition);
+    buffer.putInt(0, readPosition);
+    unreadRecords--;
+  }
+
+  boolean isFullyRead() {
+    return readPosition >= writePosition;
+  }
+
+  int size() {
+    return buffer.capacity();
+  }
+
+  @Override
+  public void close() throws IOException {
+    buffer.force();
+    channel.close();
+  }
+
+  void delete() throws IOException {
+    channel.close();
+    Files.deleteIfExists(path);
+  }
+}
@@ -18,14 +18,27 @@
 
 package org.icgc.argo.workflow_management.streams;
 
-import static org.icgc.argo.workflow_management.streams.DisposableManager.WES_CONSUMER;
+import static org.icgc.argo.workflow_management.streams.DisposableManager.WES_CANCELING_CONSUMER;
+import static org.icgc.argo.workflow_management.streams.DisposableManager.WES_CANCEL_RETRY_PRODUCER;
+import static org.icgc.argo.workflow_management.streams.DisposableManager.WES_INITIALIZING_CONSUMER;
 import static org.icgc.argo.workflow_management.streams.utils.RabbitmqUtils.createTransConsumerStream;
+import static org.icgc.argo.workflow_management.streams.utils.RabbitmqUtils.createTransRetryProducerStream;
+import static org.icgc.argo.workflow_management.streams.utils.RabbitmqUtils.nextRetryAttempt;
+import static org.icgc.argo.workflow_management.streams.utils.RabbitmqUtils.retryQueueName;
 import static org.icgc.argo.workflow_management.streams.utils.WfMgmtRunMsgConverters.createRunParams;
 import static org.icgc.argo.workflow_management.streams.utils.WfMgmtRunMsgConverters.createWfMgmtEvent;
 
 import com.pivotal.rabbitmq.RabbitEndpointService;
+import com.pivotal.rabbitmq.source.OnDemandSource;
 import com.pivotal.rabbitmq.stream.Transaction;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -41,7 +54,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import reactor.core.Disposable;
 import reactor.core.publisher.Mono;
-import reactor.util.retry.RetrySpec;
+import reactor.util.retry.Retry;
 
 @Slf4j
 @Profile("!test")
@@ -49,37 +62,131 @@ import reactor.util.retry.RetrySpec;
 @Configuration
 @RequiredArgsConstructor
 public class WesConsumerConfig {
-  @Value("${wes.consumer.queue}")
-  private String queueName;
+  public static final String IN_FLIGHT_METRIC = "wes.consumer.inflight";
 
   @Value("${wes.consumer.topicExchange}")
   private String topicExchangeName;
 
-  @Value("${wes.consumer.topicRoutingKeys}")
-  private String[] topicRoutingKeys;
+  // INITIALIZING and CANCELING are consumed from separate queues, so that cancels are never
+  // stuck behind launches
+  @Value("${wes.consumer.initializing.queue}")
+  private String initializingQueueName;
+
+  @Value("${wes.consumer.initializing.prefetch:50}")
+  private Integer initializingPrefetch;
+
+  @Value("${wes.consumer.initializing.concurrency:20}")
+  private Integer initializingConcurrency;
+
+  @Value("${wes.consumer.canceling.queue}")
+  private String cancelingQueueName;
+
+  @Value("${wes.consumer.canceling.prefetch:20}")
+  private Integer cancelingPrefetch;
+
+  @Value("${wes.consumer.canceling.concurrency:10}")
+  private Integer cancelingConcurrency;
+
+  // failed cancels are acked and re-queued through delay queues, waiting longer after each attempt
+  @Value("${wes.consumer.canceling.retryDelays:60000,180000,540000}")
+  private Long[] cancelingRetryDelays; // milliseconds
+
+  @Value("${wes.consumer.bulkheadRetryInterval:5000}")
+  private Long bulkheadRetryInterval; // milliseconds
 
   private final WebLogEventSender webLogEventSender;
   private final WorkflowExecutionService wes;
   private final RabbitEndpointService rabbit;
   private final DisposableManager disposableManager;
+  private final MeterRegistry meterRegistry;
+
+  private final OnDemandSource<WfMgmtRunMsg> cancelRetrySource =
+      new OnDemandSource<>("cancelRetrySource");
 
   @PostConstruct
   public void init() {
-    disposableManager.registerDisposable(WES_CONSUMER, this::createWfMgmtRunMsgForExecuteConsumer);
+    disposableManager.registerDisposable(
+        WES_INITIALIZING_CONSUMER,
+        () ->
+            createWfMgmtRunMsgForExecuteConsumer(
+                WES_INITIALIZING_CONSUMER,
+                initializingQueueName,
+                RunState.INITIALIZING,
+                List.of(),
+                initializingPrefetch,
+                initializingConcurrency));
+    disposableManager.registerDisposable(
+        WES_CANCELING_CONSUMER,
+        () ->
+            createWfMgmtRunMsgForExecuteConsumer(
+                WES_CANCELING_CONSUMER,
+                cancelingQueueName,
+                RunState.CANCELING,
+                getCancelingRetryDelays(),
+                cancelingPrefetch,
+                cancelingConcurrency));
+    disposableManager.registerDisposable(
+        WES_CANCEL_RETRY_PRODUCER, this::createCancelRetryProducer);
+  }
+
+  /** Disposable that publishes failed cancels to the delay queue of their current attempt. */
+  private Disposable createCancelRetryProducer() {
+    return createTransRetryProducerStream(
+            rabbit, cancelingQueueName, msg -> retryQueueName(cancelingQueueName, msg))
+        .send(cancelRetrySource.source())
+        // rejecting a retry that failed to publish fails its send, which rejects the cancel it's
+        // retrying, and the stream carries on with the next retry
+        .onErrorContinue(
+            (t, tx) -> {
+              log.error("Failed to schedule cancel retry: {}", tx, t);
+              if (tx instanceof Transaction<?>) {
+                ((Transaction<?>) tx).reject();
+              }
+            })
+        .subscribe(
+            tx -> {
+              log.debug("Cancel retry scheduled: {}", tx.get());
+              tx.commit();
+            },
+            t -> log.error("Cancel retry producer stopped", t));
   }
 
-  private Disposable createWfMgmtRunMsgForExecuteConsumer() {
-    return createTransConsumerStream(rabbit, topicExchangeName, queueName, topicRoutingKeys)
+  private Disposable createWfMgmtRunMsgForExecuteConsumer(
+      String consumerName,
+      String queueName,
+      RunState routingKey,
+      List<Duration> retryDelays,
+      Integer prefetch,
+      Integer concurrency) {
+    val inFlight =
+        meterRegistry.gauge(IN_FLIGHT_METRIC, Tags.of("lane", consumerName), new AtomicInteger());
+    return createTransConsumerStream(
+            rabbit, topicExchangeName, queueName, retryDelays, routingKey.toString())
+        .withPrefetch(prefetch)
         .receive()
+        // msgs received while draining for shutdown are left unacked for the next instance
+        .filter(tx -> disposableManager.tryAcquireTransaction())
         // consume each tx msg and flatMap into publisher of Mono<Boolean>.
         // Mono<Boolean> is used so reactor can manage subscriptions and publisher signals.
-        .flatMap(this::consumeMessageAndExecuteInitializeOrCancel)
-        .log(WES_CONSUMER)
+        .flatMap(
+            tx ->
+                Mono.defer(
+                        () -> {
+                          inFlight.incrementAndGet();
+                          return consumeMessageAndExecuteInitializeOrCancel(tx);
+                        })
+                    .doFinally(
+                        signal -> {
+                          inFlight.decrementAndGet();
+                          disposableManager.releaseTransaction();
+                        }),
+            concurrency)
+        .log(consumerName)
         .subscribe();
   }
 
   private Mono<Boolean> consumeMessageAndExecuteInitializeOrCancel(Transaction<WfMgmtRunMsg> tx) {
-    log.debug("Message received from: {} {} {}", topicExchangeName, queueName, topicRoutingKeys);
+    log.debug("Message received from: {}", topicExchangeName);
     val msg = tx.get();
     log.debug("WfMgmtRunMsg received: {}", msg);
 
@@ -87,22 +194,68 @@ public class WesConsumerConfig {
       val params = createRunParams(msg);
       return webLogEventSender
           .sendWfMgmtEvent(params, WesState.INITIALIZING)
-          .flatMap(res -> wes.run(params))
+          .flatMap(res -> wes.run(params).retryWhen(whileBulkheadFull()))
           .flatMap(runsResponse -> commitTx("Initialized", tx))
           .onErrorResume(t -> rejectAndWeblogTx(t, tx));
     } else if (msg.getState().equals(RunState.CANCELING)) {
       val runId = msg.getRunId();
       return webLogEventSender
           .sendWfMgmtEvent(runId, WesState.CANCELING)
-          .flatMap(res -> wes.cancel(runId))
-          .retryWhen(RetrySpec.backoff(3, Duration.ofMinutes(3)))
+          .flatMap(res -> wes.cancel(runId).retryWhen(whileBulkheadFull()))
           .flatMap(runsResponse -> commitTx("Cancelled", tx))
-          .onErrorResume(t -> rejectAndWeblogTx(t, tx));
+          .onErrorResume(t -> retryLaterOrRejectTx(t, tx));
     } else {
       return commitTx("Ignored", tx);
     }
   }
 
+  /**
+   * Holds the message while the cluster's bulkhead is full, retrying until it has room again. The
+   * held message stops the consumer from pulling more work than the clusters can take.
+   */
+  private Retry whileBulkheadFull() {
+    return Retry.fixedDelay(Long.MAX_VALUE, Duration.ofMillis(bulkheadRetryInterval))
+        .filter(t -> t instanceof RejectedExecutionException)
+        .doBeforeRetry(
+            signal ->
+                log.warn(
+                    "Bulkhead full, retrying in {} ms (attempt {})",
+                    bulkheadRetryInterval,
+                    signal.totalRetries() + 1));
+  }
+
+  /**
+   * Re-queues a failed cancel through the delay queue of its attempt and acks it once the broker
+   * has confirmed the retry, so it doesn't hold a consumer slot while waiting. The attempt is
+   * carried by the msg itself, so it survives restarts and is shared by every consumer. Once every
+   * delay has been tried the msg is rejected.
+   */
+  private Mono<Boolean> retryLaterOrRejectTx(Throwable t, Transaction<WfMgmtRunMsg> tx) {
+    val msg = tx.get();
+    val runId = msg.getRunId();
+    val retryDelays = getCancelingRetryDelays();
+    val attemptOpt = nextRetryAttempt(msg, retryDelays.size());
+    if (attemptOpt.isEmpty()) {
+      return rejectAndWeblogTx(t, tx);
+    }
+    val attempt = attemptOpt.get();
+
+    log.warn(
+        "Cancel of run {} failed, retrying in {} (attempt {}): {}",
+        runId,
+        retryDelays.get(attempt - 1),
+        attempt,
+        t.getMessage());
+    return cancelRetrySource
+        .send(WfMgmtRunMsg.newBuilder(msg).setRetryAttempt(attempt).build())
+        .flatMap(retryMsg -> commitTx("Cancel retry scheduled", tx))
+        .onErrorResume(e -> rejectAndWeblogTx(e, tx));
+  }
+
+  private List<Duration> getCancelingRetryDelays() {
+    return Arrays.stream(cancelingRetryDelays).map(Duration::ofMillis).collect(Collectors.toList());
+  }
+
   private Mono<Boolean> commitTx(String actionMsg, Transaction<WfMgmtRunMsg> tx) {
     log.info(actionMsg, tx.get());
     tx.commit();
@@ -18,10 +18,15 @@
 
 package org.icgc.argo.workflow_management.streams.utils;
 
+import static java.lang.String.format;
+
 import com.pivotal.rabbitmq.RabbitEndpointService;
 import com.pivotal.rabbitmq.stream.TransactionalConsumerStream;
 import com.pivotal.rabbitmq.stream.TransactionalProducerStream;
 import com.pivotal.rabbitmq.topology.ExchangeType;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
 import java.util.function.Function;
 import lombok.experimental.UtilityClass;
 import lombok.val;
@@ -44,26 +49,102 @@ public class RabbitmqUtils {
 
   public static TransactionalConsumerStream<WfMgmtRunMsg> createTransConsumerStream(
       RabbitEndpointService rabbit, String topicName, String queueName, String... routingKey) {
+    return createTransConsumerStream(rabbit, topicName, queueName, List.of(), routingKey);
+  }
+
+  /**
+   * Consumer stream of a queue, which also declares a delay queue per retry delay. A msg sent to
+   * the retry exchange of the queue with the name of a delay queue as routing key waits in that
+   * delay queue for its delay and is then dead-lettered back into the queue.
+   */
+  public static TransactionalConsumerStream<WfMgmtRunMsg> createTransConsumerStream(
+      RabbitEndpointService rabbit,
+      String topicName,
+      String queueName,
+      List<Duration> retryDelays,
+      String... routingKey) {
     val dlxName = queueName + "-dlx";
     val dlqName = queueName + "-dlq";
+    val retryExchangeName = retryExchangeName(queueName);
+    val retryReturnExchangeName = queueName + "-retry-return";
     return rabbit
         .declareTopology(
-            topologyBuilder ->
+            topologyBuilder -> {
+              topologyBuilder
+                  .declareExchange(dlxName)
+                  .and()
+                  .declareQueue(dlqName)
+                  .boundTo(dlxName)
+                  .and()
+                  .declareExchange(topicName)
+                  .type(ExchangeType.topic)
+                  .and()
+                  .declareExchange(retryExchangeName)
+                  .type(ExchangeType.direct)
+                  .and()
+                  .declareExchange(retryReturnExchangeName)
+                  .type(ExchangeType.fanout)
+                  .and()
+                  .declareQueue(queueName)
+                  .boundTo(topicName, routingKey)
+                  .boundTo(retryReturnExchangeName)
+                  .withDeadLetterExchange(dlxName);
+              for (int tier = 0; tier < retryDelays.size(); tier++) {
+                val retryQueueName = retryQueueName(queueName, tier);
                 topologyBuilder
-                    .declareExchange(dlxName)
-                    .and()
-                    .declareQueue(dlqName)
-                    .boundTo(dlxName)
-                    .and()
-                    .declareExchange(topicName)
-                    .type(ExchangeType.topic)
-                    .and()
-                    .declareQueue(queueName)
-                    .boundTo(topicName, routingKey)
-                    .withDeadLetterExchange(dlxName))
+                    .declareQueue(retryQueueName)
+                    .boundTo(retryExchangeName, retryQueueName)
+                    .withMessageTTL(retryDelays.get(tier))
+                    .withDeadLetterExchange(retryReturnExchangeName);
+              }
+            })
         .createTransactionalConsumerStream(queueName, WfMgmtRunMsg.class);
   }
 
+  /**
+   * Producer stream sending msgs to the delay queues declared for a queue by
+   * createTransConsumerStream
+   *
+   * @param retryQueueSelector selects the delay queue of a msg, see retryQueueName
+   */
+  public static TransactionalProducerStream<WfMgmtRunMsg> createTransRetryProducerStream(
+      RabbitEndpointService rabbit,
+      String queueName,
+      Function<WfMgmtRunMsg, String> retryQueueSelector) {
+    val retryExchangeName = retryExchangeName(queueName);
+    return rabbit
+        .declareTopology(
+            topologyBuilder ->
+                topologyBuilder.declareExchange(retryExchangeName).type(ExchangeType.direct))
+        .createTransactionalProducerStream(WfMgmtRunMsg.class)
+        .route()
+        .toExchange(retryExchangeName)
+        .withRoutingKey(retryQueueSelector)
+        .then();
+  }
+
+  /**
+   * @param maxAttempts number of delay queues the msg can be retried through
+   * @return the attempt retrying msg would be, empty once every attempt has been used
+   */
+  public static Optional<Integer> nextRetryAttempt(WfMgmtRunMsg msg, int maxAttempts) {
+    val attempt = Optional.ofNullable(msg.getRetryAttempt()).orElse(0) + 1;
+    return attempt > maxAttempts ? Optional.empty() : Optional.of(attempt);
+  }
+
+  /** @return the delay queue a msg retried for its attempt is sent to */
+  public static String retryQueueName(String queueName, WfMgmtRunMsg msg) {
+    return retryQueueName(queueName, msg.getRetryAttempt() - 1);
+  }
+
+  public static String retryQueueName(String queueName, int tier) {
+    return format("%s-retry-%d", queueName, tier);
+  }
+
+  private static String retryExchangeName(String queueName) {
+    return queueName + "-retry";
+  }
+
   Function<WfMgmtRunMsg, String> routingKeySelector() {
     return msg -> msg.getState().toString();
   }
@@ -24,11 +24,21 @@ import lombok.SneakyThrows;
 public class JacksonUtils {
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
+  /** The mapper behind these utils, for encoders that must produce the same JSON */
+  public static ObjectMapper getObjectMapper() {
+    return OBJECT_MAPPER;
+  }
+
   @SneakyThrows
   public static String toJsonString(Object o) {
     return OBJECT_MAPPER.writeValueAsString(o);
   }
 
+  @SneakyThrows
+  public static byte[] toJsonBytes(Object o) {
+    return OBJECT_MAPPER.writeValueAsBytes(o);
+  }
+
   @SneakyThrows
   public static <T> T convertValue(Object fromValue, Class<T> toValueType) {
     return OBJECT_MAPPER.convertValue(fromValue, toValueType);
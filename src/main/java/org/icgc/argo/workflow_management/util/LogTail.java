@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import lombok.val;
+
+/**
+ * Ring buffer keeping only the last lines of a log, bounded both by line count and by total size in
+ * bytes, so that a log of any length can be streamed through it with constant memory.
+ */
+public class LogTail {
+  private final int maxLines;
+  private final int maxBytes;
+  private final Deque<String> lines = new ArrayDeque<>();
+  private int bytes = 0;
+
+  public LogTail(int maxLines, int maxBytes) {
+    this.maxLines = maxLines;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Read a log to its end keeping only its tail
+   *
+   * @param log reader of the log, closed once read
+   * @param maxLines the maximum number of lines to keep
+   * @param maxBytes the maximum number of bytes to keep
+   * @return the tail of the log
+   */
+  public static String read(Reader log, int maxLines, int maxBytes) throws IOException {
+    val tail = new LogTail(maxLines, maxBytes);
+    try (BufferedReader reader = new BufferedReader(log)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        tail.add(line);
+      }
+    }
+    return tail.toString();
+  }
+
+  public void add(String line) {
+    if (maxLines <= 0 || maxBytes <= 0) {
+      return;
+    }
+    int lineBytes = line.getBytes(UTF_8).length;
+    if (lineBytes > maxBytes) {
+      // keep the end of a line that doesn't fit on its own
+      line = line.substring(line.length() - maxBytes);
+      lineBytes = line.getBytes(UTF_8).length;
+      while (lineBytes > maxBytes) {
+        line = line.substring(1);
+        lineBytes = line.getBytes(UTF_8).length;
+      }
+    }
+    lines.addLast(line);
+    bytes += lineBytes;
+    while (lines.size() > maxLines || bytes > maxBytes) {
+      bytes -= lines.removeFirst().getBytes(UTF_8).length;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.join("\n", lines);
+  }
+}
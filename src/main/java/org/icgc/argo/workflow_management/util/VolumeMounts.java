@@ -7,6 +7,7 @@ import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.NonNull;
+import org.icgc.argo.workflow_management.wes.model.NextflowLaunchContext;
 import org.icgc.argo.workflow_management.wes.model.WorkflowEngineParams;
 import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
 
@@ -21,7 +22,25 @@ public class VolumeMounts {
    */
   public static List<String> extract(
       NextflowProperties.K8sProperties k8sProperties, WorkflowEngineParams workflowEngineParams) {
-    return Optional.ofNullable(k8sProperties.getVolMounts())
+    return extractOrThrow(k8sProperties.getVolMounts(), workflowEngineParams);
+  }
+
+  /**
+   * Same as extract(K8sProperties k8sProperties, WorkflowEngineParams workflowEngineParams) but
+   * using the volume mounts of the cluster resolved for the run
+   *
+   * @param launchContext - launch context containing the volume mounts of the run's cluster
+   * @param workflowEngineParams - the workflow engine parameters for the run
+   * @return a list of volume mounts that are required for the engine parameters for the run
+   */
+  public static List<String> extract(
+      NextflowLaunchContext launchContext, WorkflowEngineParams workflowEngineParams) {
+    return extractOrThrow(launchContext.getVolMounts(), workflowEngineParams);
+  }
+
+  private static List<String> extractOrThrow(
+      List<String> configuredVolMounts, WorkflowEngineParams workflowEngineParams) {
+    return Optional.ofNullable(configuredVolMounts)
         .map(
             volMounts ->
                 extract(
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.wes;
+
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties.ConcurrencyLimitProperties;
+
+/**
+ * AIMD limit on the launches and cancels running at once against a cluster. The p90 latency of
+ * every window of the k8s API calls they make is compared to the target: the limit grows by one
+ * while it stays under and is cut by backoffRatio when it goes over. A 429 from the API server cuts
+ * it right away.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimit {
+  public static final String LIMIT_METRIC = "wes.concurrency.limit";
+  public static final String IN_FLIGHT_METRIC = "wes.concurrency.inflight";
+
+  private static final int TOO_MANY_REQUESTS = 429;
+
+  @Getter private final String cluster;
+  private final int minLimit;
+  private final int maxLimit;
+  private final long p90TargetNanos;
+  private final double backoffRatio;
+
+  // State
+  @Getter private int limit;
+  @Getter private int inFlight;
+  private final long[] window;
+  private int windowCount;
+
+  public AdaptiveConcurrencyLimit(
+      String cluster, ConcurrencyLimitProperties properties, MeterRegistry meterRegistry) {
+    this.cluster = cluster;
+    this.minLimit = properties.getMin();
+    this.maxLimit = properties.getMax();
+    this.p90TargetNanos = TimeUnit.MILLISECONDS.toNanos(properties.getP90Target());
+    this.backoffRatio = properties.getBackoffRatio();
+    this.limit = Math.max(minLimit, Math.min(maxLimit, properties.getInitial()));
+    this.window = new long[properties.getWindow()];
+
+    Gauge.builder(LIMIT_METRIC, this, AdaptiveConcurrencyLimit::getLimit)
+        .description("Launches and cancels allowed to run at once against the cluster")
+        .tag("cluster", cluster)
+        .register(meterRegistry);
+    Gauge.builder(IN_FLIGHT_METRIC, this, AdaptiveConcurrencyLimit::getInFlight)
+        .description("Launches and cancels running against the cluster")
+        .tag("cluster", cluster)
+        .register(meterRegistry);
+  }
+
+  /** @return true if the caller may go ahead, in which case it must call release once done */
+  public synchronized boolean tryAcquire() {
+    if (inFlight >= limit) {
+      return false;
+    }
+    inFlight++;
+    return true;
+  }
+
+  public synchronized void release() {
+    inFlight--;
+  }
+
+  /** Makes the k8s API call, sampling its latency or its being throttled by the API server */
+  public <T> T measure(Callable<T> k8sCall) throws Exception {
+    val start = System.nanoTime();
+    try {
+      val result = k8sCall.call();
+      onSample(System.nanoTime() - start);
+      return result;
+    } catch (Exception e) {
+      if (isTooManyRequests(e)) {
+        onTooManyRequests();
+      } else {
+        onSample(System.nanoTime() - start);
+      }
+      throw e;
+    }
+  }
+
+  private synchronized void onSample(long latencyNanos) {
+    window[windowCount++] = latencyNanos;
+    if (windowCount < window.length) {
+      return;
+    }
+
+    Arrays.sort(window);
+    val p90 = window[(int) Math.ceil(window.length * 0.9) - 1];
+    windowCount = 0;
+    if (p90 > p90TargetNanos) {
+      decrease("p90 latency " + TimeUnit.NANOSECONDS.toMillis(p90) + " ms");
+    } else if (limit < maxLimit) {
+      limit++;
+    }
+  }
+
+  private synchronized void onTooManyRequests() {
+    windowCount = 0;
+    decrease("API server responded 429");
+  }
+
+  private void decrease(String reason) {
+    val decreased = Math.max(minLimit, (int) (limit * backoffRatio));
+    if (decreased < limit) {
+      log.info("Lowering concurrency limit of cluster {} to {}: {}", cluster, decreased, reason);
+      limit = decreased;
+    }
+  }
+
+  private static boolean isTooManyRequests(Throwable t) {
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (cause instanceof KubernetesClientException
+          && ((KubernetesClientException) cause).getCode() == TOO_MANY_REQUESTS) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.wes;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Getter;
+import lombok.val;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties.ConcurrencyLimitProperties;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Bounded scheduler isolating the blocking k8s work (launches, cancels, pod log fetches) of one
+ * cluster from the others. Once all threads are busy and the task queue is full, new work fails
+ * fast with a RejectedExecutionException instead of spawning more threads.
+ */
+public class ClusterBulkhead implements Disposable {
+  public static final String QUEUED_TASKS_METRIC = "wes.bulkhead.queued";
+  public static final String ACTIVE_TASKS_METRIC = "wes.bulkhead.active";
+
+  @Getter private final String cluster;
+  private final Scheduler scheduler;
+  private final AdaptiveConcurrencyLimit concurrencyLimit;
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger active = new AtomicInteger();
+
+  public ClusterBulkhead(
+      String cluster,
+      int maxThreads,
+      int maxQueuedTasks,
+      ConcurrencyLimitProperties concurrencyLimit,
+      MeterRegistry meterRegistry) {
+    this.cluster = cluster;
+    this.scheduler =
+        Schedulers.newBoundedElastic(
+            maxThreads, maxQueuedTasks, String.format("nextflow-service-%s", cluster));
+    this.concurrencyLimit = new AdaptiveConcurrencyLimit(cluster, concurrencyLimit, meterRegistry);
+
+    Gauge.builder(QUEUED_TASKS_METRIC, queued, AtomicInteger::get)
+        .description("Tasks waiting for a thread in the cluster's bulkhead")
+        .tag("cluster", cluster)
+        .register(meterRegistry);
+    Gauge.builder(ACTIVE_TASKS_METRIC, active, AtomicInteger::get)
+        .description("Tasks currently running in the cluster's bulkhead")
+        .tag("cluster", cluster)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Runs a blocking task inside this bulkhead
+   *
+   * @param task the blocking task to run
+   * @return mono of the task's result, erroring with a RejectedExecutionException if the bulkhead
+   *     is full
+   */
+  public <T> Mono<T> execute(Callable<T> task) {
+    return Mono.defer(
+        () -> {
+          val started = new AtomicBoolean(false);
+          queued.incrementAndGet();
+          return Mono.fromCallable(
+                  () -> {
+                    markStarted(started);
+                    active.incrementAndGet();
+                    try {
+                      return task.call();
+                    } finally {
+                      active.decrementAndGet();
+                    }
+                  })
+              .subscribeOn(scheduler)
+              // rejected or cancelled before running
+              .doFinally(signal -> markStarted(started));
+        });
+  }
+
+  /**
+   * Runs a launch or cancel inside this bulkhead, within the cluster's adaptive concurrency limit
+   *
+   * @param task the blocking task to run
+   * @return mono of the task's result, erroring with a RejectedExecutionException if the bulkhead
+   *     is full or the concurrency limit is reached
+   */
+  public <T> Mono<T> executeLimited(Callable<T> task) {
+    return Mono.defer(
+        () -> {
+          if (!concurrencyLimit.tryAcquire()) {
+            return Mono.error(
+                new RejectedExecutionException(
+                    String.format(
+                        "Concurrency limit of %d reached for cluster %s",
+                        concurrencyLimit.getLimit(), cluster)));
+          }
+          return execute(task).doFinally(signal -> concurrencyLimit.release());
+        });
+  }
+
+  /**
+   * Makes a k8s API call of a launch or cancel, its latency driving the cluster's concurrency limit
+   */
+  public <T> T measure(Callable<T> k8sCall) throws Exception {
+    return concurrencyLimit.measure(k8sCall);
+  }
+
+  @Override
+  public void dispose() {
+    scheduler.dispose();
+  }
+
+  @Override
+  public boolean isDisposed() {
+    return scheduler.isDisposed();
+  }
+
+  private void markStarted(AtomicBoolean started) {
+    if (started.compareAndSet(false, true)) {
+      queued.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.wes;
+
+import static java.lang.String.format;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/** One {@link ClusterBulkhead} per cluster configured under nextflow.cluster */
+@Component
+public class ClusterBulkheads {
+
+  private final Map<String, ClusterBulkhead> bulkheads;
+
+  @Autowired
+  public ClusterBulkheads(NextflowProperties config, MeterRegistry meterRegistry) {
+    this.bulkheads =
+        config.getCluster().entrySet().stream()
+            .collect(
+                Collectors.toUnmodifiableMap(
+                    Map.Entry::getKey,
+                    entry ->
+                        new ClusterBulkhead(
+                            entry.getKey(),
+                            entry.getValue().getMaxThreads(),
+                            entry.getValue().getMaxQueuedTasks(),
+                            entry.getValue().getConcurrencyLimit(),
+                            meterRegistry)));
+  }
+
+  public ClusterBulkhead get(String cluster) {
+    return Optional.ofNullable(bulkheads.get(cluster))
+        .orElseThrow(
+            () -> new IllegalArgumentException(format("Cluster %s is not configured.", cluster)));
+  }
+
+  @PreDestroy
+  public void dispose() {
+    bulkheads.values().forEach(ClusterBulkhead::dispose);
+  }
+}
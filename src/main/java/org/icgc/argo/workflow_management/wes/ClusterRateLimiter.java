@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.wes;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import lombok.Getter;
+import lombok.val;
+import reactor.core.publisher.Mono;
+
+/**
+ * Token bucket pacing the launches sent to one cluster. Tokens refill at launchRate per second up
+ * to launchBurst; a launch finding the bucket empty reserves the next token and waits for it, so
+ * the message it came from stays unacked until then.
+ */
+public class ClusterRateLimiter {
+  public static final String TOKENS_METRIC = "wes.ratelimit.tokens";
+  public static final String WAITING_METRIC = "wes.ratelimit.waiting";
+  public static final String THROTTLED_METRIC = "wes.ratelimit.throttled";
+
+  @Getter private final String cluster;
+  private final double permitsPerNano;
+  private final int burst;
+  private final LongSupplier nanoTime;
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final Counter throttled;
+
+  // State, tokens go negative while launches are waiting for reserved tokens
+  private double tokens;
+  private long refilledAt;
+
+  public ClusterRateLimiter(
+      String cluster, double launchRate, int launchBurst, MeterRegistry meterRegistry) {
+    this(cluster, launchRate, launchBurst, meterRegistry, System::nanoTime);
+  }
+
+  ClusterRateLimiter(
+      String cluster,
+      double launchRate,
+      int launchBurst,
+      MeterRegistry meterRegistry,
+      LongSupplier nanoTime) {
+    if (launchRate <= 0 || launchBurst < 1) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Cluster %s needs a positive launchRate and a launchBurst of at least 1.", cluster));
+    }
+    this.cluster = cluster;
+    this.permitsPerNano = launchRate / TimeUnit.SECONDS.toNanos(1);
+    this.burst = launchBurst;
+    this.nanoTime = nanoTime;
+    this.tokens = launchBurst;
+    this.refilledAt = nanoTime.getAsLong();
+
+    Gauge.builder(TOKENS_METRIC, this, ClusterRateLimiter::getAvailableTokens)
+        .description("Launches the cluster can take right away")
+        .tag("cluster", cluster)
+        .register(meterRegistry);
+    Gauge.builder(WAITING_METRIC, waiting, AtomicInteger::get)
+        .description("Launches waiting for a token of the cluster's rate limiter")
+        .tag("cluster", cluster)
+        .register(meterRegistry);
+    this.throttled =
+        Counter.builder(THROTTLED_METRIC)
+            .description("Launches that had to wait for a token of the cluster's rate limiter")
+            .tag("cluster", cluster)
+            .register(meterRegistry);
+  }
+
+  /** @return mono completing once the caller may launch */
+  public Mono<Void> acquire() {
+    return Mono.defer(
+        () -> {
+          val wait = reserve();
+          if (wait.isZero()) {
+            return Mono.empty();
+          }
+          throttled.increment();
+          waiting.incrementAndGet();
+          return Mono.delay(wait).doFinally(signal -> waiting.decrementAndGet()).then();
+        });
+  }
+
+  /** Gives back the token of a launch that was acquired but then not sent to the cluster */
+  public synchronized void refund() {
+    refill();
+    tokens = Math.min(burst, tokens + 1);
+  }
+
+  /**
+   * Takes a token, going into debt when there is none
+   *
+   * @return how long until the taken token is actually available
+   */
+  synchronized Duration reserve() {
+    refill();
+    tokens -= 1;
+    return tokens >= 0
+        ? Duration.ZERO
+        : Duration.ofNanos((long) Math.ceil(-tokens / permitsPerNano));
+  }
+
+  synchronized double getAvailableTokens() {
+    refill();
+    return Math.max(tokens, 0);
+  }
+
+  private void refill() {
+    val now = nanoTime.getAsLong();
+    tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+    refilledAt = now;
+  }
+}
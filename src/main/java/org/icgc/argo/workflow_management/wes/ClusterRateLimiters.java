@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.wes;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * One {@link ClusterRateLimiter} per cluster configured under nextflow.cluster with a launchRate.
+ * Launches to clusters without one are not paced.
+ */
+@Component
+public class ClusterRateLimiters {
+
+  private final Map<String, ClusterRateLimiter> rateLimiters;
+
+  @Autowired
+  public ClusterRateLimiters(NextflowProperties config, MeterRegistry meterRegistry) {
+    this.rateLimiters =
+        config.getCluster().entrySet().stream()
+            .filter(entry -> Objects.nonNull(entry.getValue().getLaunchRate()))
+            .collect(
+                Collectors.toUnmodifiableMap(
+                    Map.Entry::getKey,
+                    entry ->
+                        new ClusterRateLimiter(
+                            entry.getKey(),
+                            entry.getValue().getLaunchRate(),
+                            entry.getValue().getLaunchBurst(),
+                            meterRegistry)));
+  }
+
+  /** @return mono completing once a run may be launched in the cluster */
+  public Mono<Void> acquire(String cluster) {
+    return Optional.ofNullable(rateLimiters.get(cluster))
+        .map(ClusterRateLimiter::acquire)
+        .orElse(Mono.empty());
+  }
+
+  /** Gives back the token of a launch that was acquired but then not sent to the cluster */
+  public void refund(String cluster) {
+    Optional.ofNullable(rateLimiters.get(cluster)).ifPresent(ClusterRateLimiter::refund);
+  }
+}
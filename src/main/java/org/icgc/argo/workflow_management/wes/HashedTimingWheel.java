@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.wes;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Hashed timing wheel tracking per-run deadlines (stuck pending executor pods, cancel
+ * verification, ...). Scheduling and cancelling a deadline are O(1) and cost one small object per
+ * run, and a single ticker thread moves expired deadlines onto a small worker pool, so the thread
+ * count stays constant no matter how many runs are in flight.
+ */
+@Slf4j
+@Component
+public class HashedTimingWheel {
+  public static final String PENDING_DEADLINES_METRIC = "wes.deadlines.pending";
+
+  private final long tickNanos;
+  private final Queue<Deadline>[] buckets;
+  private final int mask;
+  private final Queue<Deadline> added = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Scheduler workers;
+  private final Thread ticker;
+  private final long startTime;
+
+  private volatile boolean stopped;
+
+  @Autowired
+  public HashedTimingWheel(NextflowProperties config, MeterRegistry meterRegistry) {
+    this(
+        config.getMonitor().getTickDuration(),
+        config.getMonitor().getWheelSize(),
+        config.getMonitor().getWorkerThreads(),
+        meterRegistry);
+  }
+
+  @SuppressWarnings("unchecked")
+  public HashedTimingWheel(
+      long tickDuration, int wheelSize, int workerThreads, MeterRegistry meterRegistry) {
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+    // round up to a power of two so a tick can be mapped to its bucket with a mask
+    val size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+    this.buckets = new Queue[size];
+    for (int i = 0; i < size; i++) {
+      buckets[i] = new ArrayDeque<>();
+    }
+    this.mask = size - 1;
+    this.workers = Schedulers.newBoundedElastic(workerThreads, Integer.MAX_VALUE, "run-deadlines");
+
+    Gauge.builder(PENDING_DEADLINES_METRIC, pending, AtomicInteger::get)
+        .description("Run deadlines waiting to expire")
+        .register(meterRegistry);
+
+    this.startTime = System.nanoTime();
+    this.ticker = new Thread(this::tick, "run-deadlines-ticker");
+    this.ticker.setDaemon(true);
+    this.ticker.start();
+  }
+
+  /**
+   * Schedule a task to run once a delay has passed
+   *
+   * @param runId the run the deadline belongs to, for logging
+   * @param task the task to run on the worker pool when the deadline expires, must not block for
+   *     long
+   * @param delay how long to wait before running the task
+   * @param unit the unit of the delay
+   * @return the deadline, which can be cancelled if it is no longer needed
+   */
+  public Deadline schedule(String runId, Runnable task, long delay, TimeUnit unit) {
+    val deadline =
+        new Deadline(runId, task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0)));
+    pending.incrementAndGet();
+    added.add(deadline);
+    return deadline;
+  }
+
+  public int getPending() {
+    return pending.get();
+  }
+
+  @PreDestroy
+  public void stop() {
+    stopped = true;
+    ticker.interrupt();
+    workers.dispose();
+  }
+
+  private void tick() {
+    long tick = 0;
+    while (!stopped) {
+      val tickEnd = tickNanos * (tick + 1);
+      val sleepNanos = tickEnd - (System.nanoTime() - startTime);
+      if (sleepNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      transferAdded(tick);
+      expire(buckets[(int) (tick & mask)], tickEnd);
+      tick++;
+    }
+  }
+
+  private void transferAdded(long currentTick) {
+    Deadline deadline;
+    while ((deadline = added.poll()) != null) {
+      if (deadline.isCancelled()) {
+        continue;
+      }
+      // never place a deadline in a tick that has already been processed
+      val deadlineTick = Math.max(deadline.expiresAt / tickNanos, currentTick);
+      deadline.remainingRounds = (deadlineTick - currentTick) / buckets.length;
+      buckets[(int) (deadlineTick & mask)].add(deadline);
+    }
+  }
+
+  private void expire(Queue<Deadline> bucket, long tickEnd) {
+    val it = bucket.iterator();
+    while (it.hasNext()) {
+      val deadline = it.next();
+      if (deadline.isCancelled()) {
+        it.remove();
+      } else if (deadline.remainingRounds <= 0 && deadline.expiresAt <= tickEnd) {
+        it.remove();
+        fire(deadline);
+      } else {
+        deadline.remainingRounds--;
+      }
+    }
+  }
+
+  private void fire(Deadline deadline) {
+    if (!deadline.state.compareAndSet(Deadline.PENDING, Deadline.EXPIRED)) {
+      return;
+    }
+    pending.decrementAndGet();
+    workers.schedule(
+        () -> {
+          try {
+            deadline.task.run();
+          } catch (Exception e) {
+            log.error(String.format("Deadline for run %s threw exception", deadline.runId), e);
+          }
+        });
+  }
+
+  /** A scheduled task waiting in the wheel */
+  public class Deadline {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    @Getter private final String runId;
+    private final Runnable task;
+    private final long expiresAt; // nanoseconds since the wheel started
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    private long remainingRounds; // only touched by the ticker thread
+
+    private Deadline(String runId, Runnable task, long expiresAt) {
+      this.runId = runId;
+      this.task = task;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Cancel the deadline so its task never runs
+     *
+     * @return true if the deadline was cancelled, false if it had already expired or been cancelled
+     */
+    public boolean cancel() {
+      if (state.compareAndSet(PENDING, CANCELLED)) {
+        pending.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+    public boolean isCancelled() {
+      return state.get() == CANCELLED;
+    }
+  }
+}
@@ -19,18 +19,19 @@
 package org.icgc.argo.workflow_management.wes;
 
 import static java.lang.String.format;
+import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 import static org.icgc.argo.workflow_management.util.ParamsFile.createParamsFile;
 import static org.icgc.argo.workflow_management.util.Reflections.createWithReflection;
 import static org.icgc.argo.workflow_management.util.Reflections.invokeDeclaredMethod;
 
-import io.fabric8.kubernetes.client.Config;
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientException;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import lombok.NonNull;
 import lombok.SneakyThrows;
@@ -50,9 +51,8 @@ import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
 import org.icgc.argo.workflow_management.wes.secret.SecretProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 @Slf4j
 @Service(value = "nextflow")
@@ -68,38 +68,72 @@ public class NextflowService implements WorkflowExecutionService {
 
   private final SecretProvider secretProvider;
   private final WebLogEventSender webLogSender;
-
-  // State
-  private DefaultKubernetesClient workflowRunK8sClient;
-
-  private final Scheduler scheduler;
+  private final WorkflowRunK8sClients k8sClients;
+  private final WorkflowRunPodCaches podCaches;
+  private final ClusterBulkheads bulkheads;
+  private final ClusterRateLimiters rateLimiters;
+  private final NextflowWorkflowMonitor workflowMonitor;
+  private final HashedTimingWheel timingWheel;
 
   @Autowired
   public NextflowService(
-      NextflowProperties config, SecretProvider secretProvider, WebLogEventSender webLogSender) {
+      NextflowProperties config,
+      SecretProvider secretProvider,
+      WebLogEventSender webLogSender,
+      WorkflowRunK8sClients k8sClients,
+      WorkflowRunPodCaches podCaches,
+      ClusterBulkheads bulkheads,
+      ClusterRateLimiters rateLimiters,
+      NextflowWorkflowMonitor workflowMonitor,
+      HashedTimingWheel timingWheel) {
     this.config = config;
     this.secretProvider = secretProvider;
     this.webLogSender = webLogSender;
-    log.debug("WorkflowRunK8sClient created");
-    this.scheduler = Schedulers.newElastic("nextflow-service");
+    this.k8sClients = k8sClients;
+    this.podCaches = podCaches;
+    this.bulkheads = bulkheads;
+    this.rateLimiters = rateLimiters;
+    this.workflowMonitor = workflowMonitor;
+    this.timingWheel = timingWheel;
   }
 
+  /**
+   * Launches the run in its cluster's bulkhead, once the cluster's rate limiter lets it through. A
+   * full bulkhead or reached concurrency limit is signalled with a RejectedExecutionException so
+   * that callers can hold the message and retry later, the rate limiter's token is given back then
+   * so that retries don't use up the cluster's launches.
+   */
   public Mono<RunsResponse> run(RunParams params) {
     log.debug("Initializing run: {}", params);
-    return Mono.just(params)
-        .map(this::startRun)
+    return Mono.defer(
+            () -> {
+              val cluster = getCluster(params);
+              return rateLimiters
+                  .acquire(cluster)
+                  .then(bulkheads.get(cluster).executeLimited(() -> startRun(params)))
+                  .doOnError(
+                      RejectedExecutionException.class, e -> rateLimiters.refund(cluster));
+            })
         .map(RunsResponse::new)
-        .onErrorMap(toRuntimeException("startRun", params.getRunId()))
-        .subscribeOn(scheduler);
+        .onErrorMap(isNotRejected(), toRuntimeException("startRun", params.getRunId()));
   }
 
+  /**
+   * Cancels the run in its cluster's bulkhead. A full bulkhead or reached concurrency limit is
+   * signalled with a RejectedExecutionException so that callers can hold the message and retry
+   * later.
+   */
   public Mono<RunsResponse> cancel(@NonNull String runId) {
     log.debug("Cancelling run: {}", runId);
-    return Mono.just(runId)
-        .map(this::cancelRun)
+    return findCluster(runId)
+        .flatMap(
+            cluster -> bulkheads.get(cluster).executeLimited(() -> cancelRun(cluster, runId)))
         .map(RunsResponse::new)
-        .onErrorMap(toRuntimeException("cancelRun", runId))
-        .subscribeOn(scheduler);
+        .onErrorMap(isNotRejected(), toRuntimeException("cancelRun", runId));
+  }
+
+  private static Predicate<Throwable> isNotRejected() {
+    return t -> !(t instanceof RejectedExecutionException);
   }
 
   private Function<Throwable, Throwable> toRuntimeException(String methodName, String runId) {
@@ -116,7 +150,8 @@ public class NextflowService implements WorkflowExecutionService {
   @SneakyThrows
   private String startRun(RunParams params) {
     log.debug("startRun");
-    val cmd = createCmd(createLauncher(), params);
+    val launchContext = createLaunchContext(params);
+    val cmd = createCmd(createLauncher(), params, launchContext);
     log.debug("command created:cmd {}", cmd);
     val driver = createDriver(cmd);
     driver.run(params.getWorkflowUrl(), Collections.emptyList());
@@ -128,14 +163,11 @@ public class NextflowService implements WorkflowExecutionService {
       val workflowMetadata = new NextflowWorkflowMetadata(cmd, driver, params);
       log.debug("workflowMetadata: {}", workflowMetadata);
       val meta = new NextflowMetadata(workflowMetadata, params.getWorkflowParams());
-      val monitor =
-          new NextflowWorkflowMonitor(
-              webLogSender, meta, config.getMonitor().getMaxErrorLogLines(), workflowRunK8sClient);
 
-      // Schedule a workflow monitor to watch over our nextflow pod and make sure
+      // Have the workflow monitor watch over our nextflow pod and make sure
       // that we report an error to our web-log service if it fails to run.
-      scheduler.schedule(monitor, config.getMonitor().getSleepInterval(), TimeUnit.MILLISECONDS);
-      log.debug("workflow scheduled");
+      workflowMonitor.monitor(launchContext.getCluster(), meta);
+      log.debug("workflow monitored");
       return cmd.getRunName();
     } else {
       throw new NextflowRunException(
@@ -143,31 +175,12 @@ public class NextflowService implements WorkflowExecutionService {
     }
   }
 
-  /**
-   * Creates a k8s client to introspect and interact with wes-* and nf-* pods
-   *
-   * @return the kube client to be used to interact with deployed workflow pods
-   */
-  private DefaultKubernetesClient createWorkflowRunK8sClient(String context, String masterUrl) {
-    try {
-      val runNamespace = config.getK8s().getRunNamespace();
-      val trustCertificate = config.getK8s().isTrustCertificate();
-      Config config = Config.autoConfigure(context);
-      config.setNamespace(runNamespace);
-      config.setTrustCerts(trustCertificate);
-      config.setMasterUrl(masterUrl);
-
-      return new DefaultKubernetesClient(config);
-    } catch (KubernetesClientException e) {
-      log.error(e.getMessage(), e);
-      throw new RuntimeException(e.getLocalizedMessage());
-    }
-  }
-
   @SneakyThrows
-  private String cancelRun(@NonNull String runId) {
+  private String cancelRun(@NonNull String cluster, @NonNull String runId) {
     log.debug("cancelling run");
-    val state = getPhase(runId);
+    val workflowRunK8sClient = k8sClients.get(cluster);
+    val podCache = podCaches.get(cluster);
+    val state = getPhase(podCache, runId);
 
     if (state.equals(KubernetesPhase.FAILED)) {
       return handleFailedPod(runId);
@@ -181,32 +194,103 @@ public class NextflowService implements WorkflowExecutionService {
               "Executor pod %s is in %s state, can only cancel a running workflow.", runId, state));
     }
 
-    val childPods =
-        workflowRunK8sClient.pods().withLabel("runName", runId).list().getItems().stream()
-            .filter(pod -> pod.getMetadata().getName().startsWith(NEXTFLOW_PREFIX))
-            .collect(Collectors.toList());
+    val childPods = podCache.getProcessPods(runId);
     if (childPods.size() == 0) {
       throw new RuntimeException(
           format("Cannot cancel run: pod with runId %s does not exist.", runId));
     } else {
       childPods.forEach(
           pod -> {
-            workflowRunK8sClient.pods().withName(pod.getMetadata().getName()).delete();
+            k8sCall(
+                cluster,
+                () -> workflowRunK8sClient.pods().withName(pod.getMetadata().getName()).delete());
             log.info(
                 format(
                     "Process pod %s with runId = %s has been deleted from namespace %s.",
                     pod.getMetadata().getName(), runId, workflowRunK8sClient.getNamespace()));
           });
+
+      // make sure the deletes went through once k8s has had time to act on them
+      timingWheel.schedule(
+          runId,
+          () -> verifyCancelled(cluster, runId),
+          config.getMonitor().getCancelVerifyDelay(),
+          TimeUnit.MILLISECONDS);
     }
 
     return runId;
   }
 
-  private KubernetesPhase getPhase(String runId) {
+  /** Makes a k8s API call of a launch or cancel, sampling it for the cluster's concurrency limit */
+  @SneakyThrows
+  private <T> T k8sCall(String cluster, Callable<T> call) {
+    return bulkheads.get(cluster).measure(call);
+  }
+
+  private void verifyCancelled(String cluster, String runId) {
+    val remainingPods =
+        podCaches.get(cluster).getProcessPods(runId).stream()
+            .filter(pod -> isNull(pod.getMetadata().getDeletionTimestamp()))
+            .collect(Collectors.toList());
+    if (remainingPods.isEmpty()) {
+      log.debug("Verified process pods of cancelled run {} are gone", runId);
+      return;
+    }
+
+    log.warn(
+        "{} process pods of cancelled run {} are still running, deleting them again",
+        remainingPods.size(),
+        runId);
+    val workflowRunK8sClient = k8sClients.get(cluster);
+    bulkheads
+        .get(cluster)
+        .execute(
+            () ->
+                remainingPods.stream()
+                    .map(pod -> workflowRunK8sClient.pods().withName(pod.getMetadata().getName()))
+                    .allMatch(pod -> Boolean.TRUE.equals(pod.delete())))
+        .subscribe(
+            deleted -> log.info("Re-deleted process pods of cancelled run {}: {}", runId, deleted),
+            t -> log.error(format("Failed to re-delete process pods of run %s", runId), t));
+  }
+
+  /**
+   * Finds the cluster the run was launched in by looking up its executor pod in every cluster, each
+   * lookup running in that cluster's bulkhead so an unresponsive cluster doesn't hold up the others
+   *
+   * @param runId the run id, which is also the name of the executor pod
+   * @return mono of the name of the cluster in which the executor pod lives
+   */
+  private Mono<String> findCluster(String runId) {
+    return Flux.fromIterable(podCaches.getAll().entrySet())
+        .flatMap(
+            entry ->
+                bulkheads
+                    .get(entry.getKey())
+                    .execute(() -> entry.getValue().getPod(runId).isPresent())
+                    .onErrorResume(
+                        t -> {
+                          log.error(
+                              format(
+                                  "Failed to look up executor pod %s in cluster %s",
+                                  runId, entry.getKey()),
+                              t);
+                          return Mono.just(false);
+                        })
+                    .filter(Boolean::booleanValue)
+                    .map(found -> entry.getKey()))
+        .next()
+        .switchIfEmpty(
+            Mono.error(
+                () ->
+                    new RuntimeException(
+                        format("Cannot find executor pod with runId: %s.", runId))));
+  }
+
+  private KubernetesPhase getPhase(WorkflowRunPodCache podCache, String runId) {
     val executorPod =
-        workflowRunK8sClient.pods().withLabel("runName", runId).list().getItems().stream()
-            .filter(pod -> pod.getMetadata().getName().startsWith(WES_PREFIX))
-            .findFirst()
+        podCache
+            .getExecutorPod(runId)
             .orElseThrow(
                 () ->
                     new RuntimeException(
@@ -236,13 +320,43 @@ public class NextflowService implements WorkflowExecutionService {
         .orElseThrow(ReflectionUtilsException::new);
   }
 
-  private CmdKubeRun createCmd(@NonNull Launcher launcher, @NonNull RunParams params)
+  private String getCluster(@NonNull RunParams params) {
+    return Objects.nonNull(params.getWorkflowParams().get("cluster"))
+        ? params.getWorkflowParams().get("cluster").toString()
+        : WorkflowRunK8sClients.DEFAULT_CLUSTER;
+  }
+
+  /**
+   * Resolves everything specific to the cluster the run will be launched in. The resulting context
+   * is immutable so that concurrent launches on different clusters cannot affect each other.
+   */
+  private NextflowLaunchContext createLaunchContext(@NonNull RunParams params) {
+    val cluster = getCluster(params);
+    val k8sClient = k8sClients.get(cluster);
+    val k8sConfig = config.getK8s();
+    val clusterConfig = config.getCluster().get(cluster);
+
+    return NextflowLaunchContext.builder()
+        .cluster(cluster)
+        .context(clusterConfig.getContext())
+        .k8sClient(k8sClient)
+        .volMounts(
+            Optional.ofNullable(clusterConfig.getVolMounts()).orElse(k8sConfig.getVolMounts()))
+        .pluginsDir(
+            Optional.ofNullable(clusterConfig.getPluginsDir()).orElse(k8sConfig.getPluginsDir()))
+        .secretName(format("%s-%s", params.getRunId(), SECRET_SUFFIX))
+        .build();
+  }
+
+  private CmdKubeRun createCmd(
+      @NonNull Launcher launcher,
+      @NonNull RunParams params,
+      @NonNull NextflowLaunchContext launchContext)
       throws ReflectionUtilsException, IOException {
 
     // Config from application.yml
     val k8sConfig = config.getK8s();
     val webLogUrl = config.getWeblogUrl();
-    val clusterConfig = config.getCluster();
 
     // params map to build CmdKubeRun (put if val not null)
     val cmdParams = new ConditionalPutMap<String, Object>(Objects::nonNull, new HashMap<>());
@@ -265,37 +379,29 @@ public class NextflowService implements WorkflowExecutionService {
 
     // Dynamic engine properties/config
     val workflowEngineParams = params.getWorkflowEngineParams();
-    val cluster =
-        Objects.nonNull(params.getWorkflowParams().get("cluster"))
-            ? params.getWorkflowParams().get("cluster").toString()
-            : "default";
-
-    // --- Nextflow:  context switching here for secret and pod creation
-    val clusterContext = clusterConfig.get(cluster).getContext();
-    val clusterUrl = clusterConfig.get(cluster).getMasterUrl();
-    k8sConfig.setVolMounts(clusterConfig.get(cluster).getVolMounts());
-    k8sConfig.setContext(clusterContext);
-    k8sConfig.setPluginsDir(clusterConfig.get(cluster).getPluginsDir());
-    workflowRunK8sClient =
-        createWorkflowRunK8sClient(clusterContext, clusterUrl); // context here for secret creation
-
-    // Create SecretName and K8s Secret
-    val rdpcSecretName = String.format("%s-%s", runName, SECRET_SUFFIX);
+
+    // Create K8s Secret in the run's cluster
+    val workflowRunK8sClient = launchContext.getK8sClient();
     secretProvider
         .generateSecret()
         .ifPresentOrElse(
             secret -> {
               val kubernetesSecret =
-                  workflowRunK8sClient
-                      .secrets()
-                      .createNew()
-                      .withType("Opaque")
-                      .withNewMetadata()
-                      .withNewName(rdpcSecretName)
-                      .endMetadata()
-                      .withData(
-                          Map.of("secret", Base64.getEncoder().encodeToString(secret.getBytes())))
-                      .done();
+                  k8sCall(
+                      launchContext.getCluster(),
+                      () ->
+                          workflowRunK8sClient
+                              .secrets()
+                              .createNew()
+                              .withType("Opaque")
+                              .withNewMetadata()
+                              .withNewName(launchContext.getSecretName())
+                              .endMetadata()
+                              .withData(
+                                  Map.of(
+                                      "secret",
+                                      Base64.getEncoder().encodeToString(secret.getBytes())))
+                              .done());
               log.debug(
                   "Secret {} in namespace {} created.",
                   kubernetesSecret.getMetadata().getName(),
@@ -315,11 +421,10 @@ public class NextflowService implements WorkflowExecutionService {
             .serviceAccount(k8sConfig.getServiceAccount())
             .runNamespace(k8sConfig.getRunNamespace())
             .imagePullPolicy(k8sConfig.getImagePullPolicy())
-            .pluginsDir(k8sConfig.getPluginsDir())
+            .launchContext(launchContext)
             .launchDir(workflowEngineParams.getLaunchDir())
             .projectDir(workflowEngineParams.getProjectDir())
             .workDir(workflowEngineParams.getWorkDir())
-            .context(k8sConfig.getContext())
             .build()
             .getConfig();
 
@@ -344,7 +449,7 @@ public class NextflowService implements WorkflowExecutionService {
     }
 
     // volume mount config for run
-    cmdParams.put("volMounts", VolumeMounts.extract(k8sConfig, workflowEngineParams));
+    cmdParams.put("volMounts", VolumeMounts.extract(launchContext, workflowEngineParams));
 
     return createWithReflection(CmdKubeRun.class, cmdParams)
         .orElseThrow(ReflectionUtilsException::new);
@@ -15,93 +15,310 @@
  * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
  * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-
 package org.icgc.argo.workflow_management.wes;
 
 import static java.lang.String.format;
 import static java.time.OffsetDateTime.now;
 import static org.icgc.argo.workflow_management.wes.NextflowService.NEXTFLOW_PREFIX;
+import static org.icgc.argo.workflow_management.wes.NextflowService.WES_PREFIX;
 
-import io.fabric8.kubernetes.api.model.DoneablePod;
 import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
-import io.fabric8.kubernetes.client.dsl.PodResource;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
 import java.time.ZoneOffset;
-import java.util.stream.Collectors;
-import lombok.AllArgsConstructor;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.PostConstruct;
+import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.icgc.argo.workflow_management.streams.WebLogEventSender;
 import org.icgc.argo.workflow_management.streams.model.NextflowEvent;
+import org.icgc.argo.workflow_management.util.LogTail;
 import org.icgc.argo.workflow_management.wes.model.KubernetesPhase;
 import org.icgc.argo.workflow_management.wes.model.NextflowMetadata;
+import org.icgc.argo.workflow_management.wes.model.NextflowWorkflowMetadata;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
 
+/**
+ * Watches over launched nextflow executor pods until they either create process pods, succeed or
+ * fail, reporting an error to the web-log service if a pod fails to start. Runs are checked as pod
+ * events arrive from each cluster's {@link WorkflowRunPodCache} instead of polling, so no thread is
+ * held per run. Pods stuck in pending, or waiting on a container for a reason they won't recover
+ * from on their own (e.g. ImagePullBackOff), are reported as errors and deleted once past the
+ * cluster's nextflow.monitor.stuck thresholds.
+ */
 @Slf4j
-@AllArgsConstructor
-public class NextflowWorkflowMonitor implements Runnable {
+@Component
+public class NextflowWorkflowMonitor {
 
   private final WebLogEventSender webLogSender;
-  private final NextflowMetadata metadata;
   private final Integer maxErrorLogLines;
-  private final DefaultKubernetesClient kubernetesClient;
-
-  public void run() {
-    boolean done = false;
-    val podName = metadata.getWorkflow().getRunName();
-    int count = 0;
-    while (!done && count < 3) {
-      count++;
-      try {
-        Thread.sleep(5000);
-        PodResource<Pod, DoneablePod> pod = kubernetesClient.pods().withName(podName);
-        val p = pod.get();
-        val log = pod.tailingLines(maxErrorLogLines).getLog();
-        done = handlePod(metadata, p, log);
-      } catch (Exception e) {
-        log.error(format("Workflow Status Monitor threw exception %s", e.getMessage()));
-      }
+  private final Integer maxErrorLogBytes;
+  private final WorkflowRunK8sClients k8sClients;
+  private final WorkflowRunPodCaches podCaches;
+  private final ClusterBulkheads bulkheads;
+  private final HashedTimingWheel timingWheel;
+  private final NextflowProperties.MonitorProperties monitorConfig;
+
+  // State
+  private final Map<String, MonitoredRun> monitoredRuns = new ConcurrentHashMap<>();
+
+  @Autowired
+  public NextflowWorkflowMonitor(
+      NextflowProperties config,
+      WebLogEventSender webLogSender,
+      WorkflowRunK8sClients k8sClients,
+      WorkflowRunPodCaches podCaches,
+      ClusterBulkheads bulkheads,
+      HashedTimingWheel timingWheel) {
+    this.webLogSender = webLogSender;
+    this.maxErrorLogLines = config.getMonitor().getMaxErrorLogLines();
+    this.maxErrorLogBytes = config.getMonitor().getMaxErrorLogBytes();
+    this.k8sClients = k8sClients;
+    this.podCaches = podCaches;
+    this.bulkheads = bulkheads;
+    this.timingWheel = timingWheel;
+    this.monitorConfig = config.getMonitor();
+    podCaches.getAll().forEach((cluster, cache) -> cache.addListener(new PodEventHandler()));
+  }
+
+  /**
+   * Re-enrols the runs of every cluster whose executor pods haven't started process pods yet, so
+   * that runs launched before a restart are still watched over. Pods that already failed aren't
+   * enrolled as their failure may have been reported before the restart.
+   */
+  @PostConstruct
+  public void recoverMonitoredRuns() {
+    podCaches
+        .getAll()
+        .forEach(
+            (cluster, cache) ->
+                bulkheads
+                    .get(cluster)
+                    .execute(cache::listExecutorPods)
+                    .flatMapIterable(pods -> pods)
+                    .filter(pod -> podPending(pod) || getPhase(pod).equals(KubernetesPhase.RUNNING))
+                    .filter(pod -> !podHasChildren(cluster, pod.getMetadata().getName()))
+                    .filter(pod -> !monitoredRuns.containsKey(pod.getMetadata().getName()))
+                    .subscribe(
+                        pod -> {
+                          log.info(
+                              "Recovering monitor of executor pod {} in cluster {}",
+                              pod.getMetadata().getName(),
+                              cluster);
+                          monitor(
+                              cluster,
+                              new NextflowMetadata(
+                                  new NextflowWorkflowMetadata(pod), Collections.emptyMap()));
+                        },
+                        t ->
+                            log.error(
+                                format("Failed to recover monitored runs of cluster %s", cluster),
+                                t)));
+  }
+
+  /**
+   * Start monitoring a launched run
+   *
+   * @param cluster the cluster the run was launched in
+   * @param metadata the metadata of the run, used to report an error if its executor pod fails
+   */
+  public void monitor(String cluster, NextflowMetadata metadata) {
+    val runName = metadata.getWorkflow().getRunName();
+    val thresholds = monitorConfig.getStuck(cluster);
+    val pendingTimeout =
+        timingWheel.schedule(
+            runName,
+            () -> onPendingTimeout(runName),
+            thresholds.getPendingTimeout(),
+            TimeUnit.MILLISECONDS);
+    monitoredRuns.put(
+        runName,
+        new MonitoredRun(cluster, metadata, thresholds, pendingTimeout, new AtomicReference<>()));
+    log.debug("Monitoring run {} in cluster {}", runName, cluster);
+
+    // the pod may have changed phase before the run was registered
+    podCaches.get(cluster).getExecutorPod(runName).ifPresent(this::handlePod);
+  }
+
+  private void onPendingTimeout(String runName) {
+    val run = monitoredRuns.get(runName);
+    if (run == null) {
+      return;
     }
-    if (count == 3) {
-      log.debug("Not sure if WF is running, but I can't keep looking forever!");
+    val pod = podCaches.get(run.getCluster()).getExecutorPod(runName);
+    val pendingTimeout = run.getThresholds().getPendingTimeout();
+    if (pod.isEmpty() || podPending(pod.get())) {
+      reportStuck(
+          run, pod, format("Nextflow pod was still pending after %d ms", pendingTimeout));
+    } else if (stopMonitoring(runName)) {
+      log.warn(
+          "Executor pod {} has no process pods after {} ms, no longer monitoring it",
+          runName,
+          pendingTimeout);
     }
   }
 
-  public boolean handlePod(NextflowMetadata metadata, Pod pod, String podLog) {
+  private void onWaitingTimeout(String runName) {
+    val run = monitoredRuns.get(runName);
+    if (run == null) {
+      return;
+    }
+    val pod = podCaches.get(run.getCluster()).getExecutorPod(runName);
+    pod.flatMap(p -> getStuckWaitingReason(p, run.getThresholds()))
+        .ifPresent(
+            reason ->
+                reportStuck(
+                    run,
+                    pod,
+                    format(
+                        "Nextflow pod was still waiting after %d ms: %s",
+                        run.getThresholds().getWaitingTimeout(), reason)));
+  }
+
+  private boolean stopMonitoring(String runName) {
+    val run = monitoredRuns.remove(runName);
+    if (run == null) {
+      return false;
+    }
+    run.getPendingTimeout().cancel();
+    Optional.ofNullable(run.getWaitingTimeout().getAndSet(null))
+        .ifPresent(HashedTimingWheel.Deadline::cancel);
+    return true;
+  }
+
+  private void handlePod(Pod pod) {
     val podName = pod.getMetadata().getName();
+    val run = monitoredRuns.get(podName);
+    // the phase isn't reported until the pod has been accepted by the cluster
+    if (run == null || pod.getStatus() == null || pod.getStatus().getPhase() == null) {
+      return;
+    }
+
     // if the pod running nextflow has created children, we'll assume it started successfully, and
     // that it can handle it's own logging from here on in.
-    if (podHasChildren(podName) || podSucceeded(pod)) {
-      // state and not attempt to emit events until that is in an error state
-      log.debug(podName + " has children! Done!");
-      return true;
+    if (podHasChildren(run.getCluster(), podName) || podSucceeded(pod)) {
+      if (stopMonitoring(podName)) {
+        log.debug(podName + " has children! Done!");
+      }
+      return;
     }
 
     // if the pod failed to start up, we'll log the start and end events, so that we know
     // that the pod has started, and has failed, with the pod log as the error report.
-    if (podFailed(pod)) {
-      val workflow = metadata.getWorkflow();
+    if (podFailed(pod) && stopMonitoring(podName)) {
+      // fetching the log is blocking so keep it off the informer's thread
+      bulkheads
+          .get(run.getCluster())
+          .execute(() -> getPodLog(run.getCluster(), podName))
+          .onErrorResume(
+              t -> {
+                log.error(format("Failed to get log of failed pod %s", podName), t);
+                return Mono.just("");
+              })
+          .subscribe(
+              podLog ->
+                  reportFailure(
+                      run.getMetadata(),
+                      Optional.of(pod),
+                      "Nextflow pod failed to start: " + podLog));
+      return;
+    }
 
-      workflow.update(pod);
-      workflow.setComplete(now(ZoneOffset.UTC));
-      workflow.setErrorReport("Nextflow pod failed to start: " + podLog);
-      workflow.setSuccess(false);
+    // if a container is waiting for something it won't recover from on its own, give it until
+    // the waiting timeout before reporting the run as stuck.
+    val waitingTimeout = run.getWaitingTimeout();
+    if (getStuckWaitingReason(pod, run.getThresholds()).isPresent()) {
+      if (waitingTimeout.get() == null) {
+        val deadline =
+            timingWheel.schedule(
+                podName,
+                () -> onWaitingTimeout(podName),
+                run.getThresholds().getWaitingTimeout(),
+                TimeUnit.MILLISECONDS);
+        if (!waitingTimeout.compareAndSet(null, deadline)) {
+          deadline.cancel();
+        }
+      }
+    } else {
+      Optional.ofNullable(waitingTimeout.getAndSet(null))
+          .ifPresent(HashedTimingWheel.Deadline::cancel);
+    }
 
-      log.debug("Sending error nextflow event");
-      webLogSender.sendNextflowEventAsync(metadata, NextflowEvent.ERROR);
-      return true;
+    // otherwise, we wait for the next event on the pod or its children
+  }
+
+  /** Reports a run whose executor pod is stuck as an error and deletes the pod */
+  private void reportStuck(MonitoredRun run, Optional<Pod> pod, String errorReport) {
+    val runName = run.getMetadata().getWorkflow().getRunName();
+    if (!stopMonitoring(runName)) {
+      return;
     }
+    log.warn("Executor pod {} is stuck: {}", runName, errorReport);
+    reportFailure(run.getMetadata(), pod, errorReport);
 
-    // otherwise, we need to check in again in a moment or two
-    return false;
+    bulkheads
+        .get(run.getCluster())
+        .execute(() -> k8sClients.get(run.getCluster()).pods().withName(runName).delete())
+        .subscribe(
+            deleted -> log.info("Stuck executor pod {} deleted: {}", runName, deleted),
+            t -> log.error(format("Failed to delete stuck executor pod %s", runName), t));
   }
 
-  private boolean podHasChildren(String podName) {
-    val childPods =
-        kubernetesClient.pods().withLabel("runName", podName).list().getItems().stream()
-            .filter(pod -> pod.getMetadata().getName().startsWith(NEXTFLOW_PREFIX))
-            .collect(Collectors.toList());
+  private void reportFailure(NextflowMetadata metadata, Optional<Pod> pod, String errorReport) {
+    val workflow = metadata.getWorkflow();
+
+    pod.ifPresent(workflow::update);
+    workflow.setComplete(now(ZoneOffset.UTC));
+    workflow.setErrorReport(errorReport);
+    workflow.setSuccess(false);
 
-    return childPods.size() > 0;
+    log.debug("Sending error nextflow event");
+    webLogSender.sendNextflowEventAsync(metadata, NextflowEvent.ERROR);
+  }
+
+  /** Streams the tail of the pod's log, never holding more than maxErrorLogBytes of it */
+  @SneakyThrows
+  private String getPodLog(String cluster, String podName) {
+    val logReader =
+        k8sClients
+            .get(cluster)
+            .pods()
+            .withName(podName)
+            .tailingLines(maxErrorLogLines)
+            .getLogReader();
+    return logReader == null ? "" : LogTail.read(logReader, maxErrorLogLines, maxErrorLogBytes);
+  }
+
+  private boolean podHasChildren(String cluster, String podName) {
+    return !podCaches.get(cluster).getProcessPods(podName).isEmpty();
+  }
+
+  private Optional<String> getStuckWaitingReason(
+      Pod pod, NextflowProperties.StuckRunProperties thresholds) {
+    if (pod.getStatus() == null || pod.getStatus().getContainerStatuses() == null) {
+      return Optional.empty();
+    }
+    return pod.getStatus().getContainerStatuses().stream()
+        .filter(status -> status.getState() != null && status.getState().getWaiting() != null)
+        .map(status -> status.getState().getWaiting())
+        .filter(waiting -> thresholds.getWaitingReasons().contains(waiting.getReason()))
+        .map(waiting -> format("%s (%s)", waiting.getReason(), waiting.getMessage()))
+        .findFirst();
+  }
+
+  private boolean podPending(Pod pod) {
+    return pod.getStatus() == null
+        || pod.getStatus().getPhase() == null
+        || getPhase(pod).equals(KubernetesPhase.PENDING);
   }
 
   private boolean podSucceeded(Pod pod) {
@@ -115,4 +332,75 @@ public class NextflowWorkflowMonitor implements Runnable {
   public KubernetesPhase getPhase(Pod pod) {
     return KubernetesPhase.valueOf(pod.getStatus().getPhase().toUpperCase());
   }
+
+  /** Routes executor pod changes, and the creation of their process pods, to handlePod */
+  private class PodEventHandler implements ResourceEventHandler<Pod> {
+    @Override
+    public void onAdd(Pod pod) {
+      onPodEvent(pod);
+    }
+
+    @Override
+    public void onUpdate(Pod oldPod, Pod newPod) {
+      onPodEvent(newPod);
+    }
+
+    @Override
+    public void onDelete(Pod pod, boolean deletedFinalStateUnknown) {
+      val podName = pod.getMetadata().getName();
+      val run = podName.startsWith(WES_PREFIX) ? monitoredRuns.get(podName) : null;
+      if (run == null) {
+        return;
+      }
+      val started =
+          podHasChildren(run.getCluster(), podName) || (!podPending(pod) && podSucceeded(pod));
+      if (!stopMonitoring(podName)) {
+        return;
+      }
+      if (started) {
+        log.debug("Executor pod {} was deleted, no longer monitoring it", podName);
+        return;
+      }
+
+      // nothing else will report the run, it would be left active forever
+      log.warn("Executor pod {} was deleted before it started the run", podName);
+      reportFailure(
+          run.getMetadata(),
+          Optional.of(pod),
+          "Nextflow pod was deleted before it started the run");
+    }
+
+    private void onPodEvent(Pod pod) {
+      if (monitoredRuns.isEmpty()) {
+        return;
+      }
+      val podName = pod.getMetadata().getName();
+      try {
+        if (podName.startsWith(WES_PREFIX)) {
+          handlePod(pod);
+        } else if (podName.startsWith(NEXTFLOW_PREFIX)) {
+          val labels = pod.getMetadata().getLabels();
+          val runName = labels == null ? null : labels.get("runName");
+          val run = runName == null ? null : monitoredRuns.get(runName);
+          if (run != null) {
+            podCaches
+                .get(run.getCluster())
+                .getExecutorPod(runName)
+                .ifPresent(NextflowWorkflowMonitor.this::handlePod);
+          }
+        }
+      } catch (Exception e) {
+        log.error(format("Workflow Status Monitor threw exception %s", e.getMessage()), e);
+      }
+    }
+  }
+
+  @Value
+  private static class MonitoredRun {
+    String cluster;
+    NextflowMetadata metadata;
+    NextflowProperties.StuckRunProperties thresholds;
+    HashedTimingWheel.Deadline pendingTimeout;
+    AtomicReference<HashedTimingWheel.Deadline> waitingTimeout;
+  }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management.wes;
+
+import static java.lang.String.format;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import okhttp3.ConnectionPool;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Long-lived k8s clients used to introspect and interact with wes-* and nf-* pods, one per cluster
+ * configured under nextflow.cluster. Clients are built once at startup so launches, cancels and
+ * monitors share the same connection pool instead of rebuilding the http stack for every run.
+ */
+@Slf4j
+@Component
+public class WorkflowRunK8sClients {
+
+  public static final String DEFAULT_CLUSTER = "default";
+
+  private final Map<String, DefaultKubernetesClient> clients;
+
+  @Autowired
+  public WorkflowRunK8sClients(NextflowProperties config) {
+    val runNamespace = config.getK8s().getRunNamespace();
+    val trustCertificate = config.getK8s().isTrustCertificate();
+    this.clients =
+        config.getCluster().entrySet().stream()
+            .collect(
+                Collectors.toUnmodifiableMap(
+                    Map.Entry::getKey,
+                    entry ->
+                        createClient(
+                            entry.getKey(), entry.getValue(), runNamespace, trustCertificate)));
+  }
+
+  /**
+   * Get the k8s client for a configured cluster
+   *
+   * @param cluster the name of the cluster as configured under nextflow.cluster
+   * @return the kube client to be used to interact with deployed workflow pods in that cluster
+   */
+  public DefaultKubernetesClient get(String cluster) {
+    return Optional.ofNullable(clients.get(cluster))
+        .orElseThrow(
+            () -> new IllegalArgumentException(format("Cluster %s is not configured.", cluster)));
+  }
+
+  public Map<String, DefaultKubernetesClient> getAll() {
+    return clients;
+  }
+
+  @PreDestroy
+  public void close() {
+    clients.forEach(
+        (cluster, client) -> {
+          log.debug("Closing WorkflowRunK8sClient for cluster {}", cluster);
+          client.close();
+        });
+  }
+
+  private static DefaultKubernetesClient createClient(
+      String cluster,
+      NextflowProperties.ClusterProperties clusterConfig,
+      String runNamespace,
+      boolean trustCertificate) {
+    try {
+      Config config = Config.autoConfigure(clusterConfig.getContext());
+      config.setNamespace(runNamespace);
+      config.setTrustCerts(trustCertificate);
+      config.setMasterUrl(clusterConfig.getMasterUrl());
+      config.setConnectionTimeout(clusterConfig.getConnectionTimeout());
+      config.setRequestTimeout(clusterConfig.getRequestTimeout());
+      config.setHttp2Disable(clusterConfig.isHttp2Disable());
+
+      val httpClient =
+          HttpClientUtils.createHttpClient(config)
+              .newBuilder()
+              .connectionPool(
+                  new ConnectionPool(
+                      clusterConfig.getMaxIdleConnections(),
+                      clusterConfig.getKeepAliveDuration(),
+                      TimeUnit.MILLISECONDS))
+              .build();
+
+      log.debug("WorkflowRunK8sClient created for cluster {}", cluster);
+      return new DefaultKubernetesClient(httpClient, config);
+    } catch (KubernetesClientException e) {
+      log.error(e.getMessage(), e);
+      throw new RuntimeException(e.getLocalizedMessage());
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.wes;
+
+import static java.lang.String.format;
+import static org.icgc.argo.workflow_management.wes.NextflowService.NEXTFLOW_PREFIX;
+import static org.icgc.argo.workflow_management.wes.NextflowService.WES_PREFIX;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.dsl.base.OperationContext;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.kubernetes.client.informers.SharedInformerFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+/**
+ * In-memory view of the wes-* and nf-* pods of one cluster's run namespace, kept up to date by a
+ * watch instead of listing pods against the API server on every lookup. Pods are indexed by their
+ * runName label and name prefix so that a run's executor or process pods can be found directly.
+ * Until the informer has synced, lookups fall back to querying the API server. Listeners can
+ * subscribe to the pod events driving the cache.
+ */
+@Slf4j
+public class WorkflowRunPodCache {
+
+  private static final String RUN_POD_INDEX = "runPod";
+  private static final String RUN_NAME_LABEL = "runName";
+
+  private final String cluster;
+  private final DefaultKubernetesClient client;
+  private final SharedInformerFactory informerFactory;
+  private final SharedIndexInformer<Pod> informer;
+  private final List<ResourceEventHandler<Pod>> listeners = new CopyOnWriteArrayList<>();
+
+  public WorkflowRunPodCache(String cluster, DefaultKubernetesClient client, long resyncPeriod) {
+    this.cluster = cluster;
+    this.client = client;
+    this.informerFactory = client.informers();
+    this.informer =
+        informerFactory.sharedIndexInformerFor(
+            Pod.class,
+            PodList.class,
+            new OperationContext().withNamespace(client.getNamespace()),
+            resyncPeriod);
+    this.informer.addIndexers(Map.of(RUN_POD_INDEX, WorkflowRunPodCache::runPodIndexKeys));
+    this.informer.addEventHandler(
+        new ResourceEventHandler<>() {
+          @Override
+          public void onAdd(Pod pod) {
+            listeners.forEach(listener -> listener.onAdd(pod));
+          }
+
+          @Override
+          public void onUpdate(Pod oldPod, Pod newPod) {
+            listeners.forEach(listener -> listener.onUpdate(oldPod, newPod));
+          }
+
+          @Override
+          public void onDelete(Pod pod, boolean deletedFinalStateUnknown) {
+            listeners.forEach(listener -> listener.onDelete(pod, deletedFinalStateUnknown));
+          }
+        });
+  }
+
+  /**
+   * Subscribe to pod add, update and delete events of the run namespace. Listeners are called on
+   * the informer's thread so they must not block.
+   */
+  public void addListener(ResourceEventHandler<Pod> listener) {
+    listeners.add(listener);
+  }
+
+  public void start() {
+    log.debug("Starting pod informer for cluster {}", cluster);
+    informerFactory.startAllRegisteredInformers();
+  }
+
+  public void stop() {
+    log.debug("Stopping pod informer for cluster {}", cluster);
+    informerFactory.stopAllRegisteredInformers();
+  }
+
+  /**
+   * Get a pod in the run namespace by name
+   *
+   * @param podName the name of the pod, for executor pods this is also the run id
+   * @return the pod if it exists
+   */
+  public Optional<Pod> getPod(String podName) {
+    if (informer.hasSynced()) {
+      val cached = informer.getIndexer().getByKey(format("%s/%s", client.getNamespace(), podName));
+      if (cached != null) {
+        return Optional.of(cached);
+      }
+    }
+    // not (yet) seen by the watch, e.g. the pod was created moments ago
+    return Optional.ofNullable(client.pods().withName(podName).get());
+  }
+
+  /**
+   * Get the wes-* executor pod of a run
+   *
+   * @param runId the run id, which is the runName label of all pods belonging to the run
+   * @return the executor pod if it exists
+   */
+  public Optional<Pod> getExecutorPod(String runId) {
+    return getRunPods(WES_PREFIX, runId).stream().findFirst();
+  }
+
+  /**
+   * Get the nf-* process pods of a run
+   *
+   * @param runId the run id, which is the runName label of all pods belonging to the run
+   * @return the process pods of the run, empty if it has none
+   */
+  public List<Pod> getProcessPods(String runId) {
+    return getRunPods(NEXTFLOW_PREFIX, runId);
+  }
+
+  /**
+   * List the wes-* executor pods of all runs straight from the API server, for use before the
+   * informer has synced
+   *
+   * @return every executor pod in the run namespace
+   */
+  public List<Pod> listExecutorPods() {
+    return client.pods().withLabel(RUN_NAME_LABEL).list().getItems().stream()
+        .filter(pod -> pod.getMetadata().getName().startsWith(WES_PREFIX))
+        .collect(Collectors.toList());
+  }
+
+  private List<Pod> getRunPods(String prefix, String runId) {
+    if (informer.hasSynced()) {
+      return informer.getIndexer().byIndex(RUN_POD_INDEX, runPodIndexKey(prefix, runId));
+    }
+    return client.pods().withLabel(RUN_NAME_LABEL, runId).list().getItems().stream()
+        .filter(pod -> pod.getMetadata().getName().startsWith(prefix))
+        .collect(Collectors.toList());
+  }
+
+  private static List<String> runPodIndexKeys(Pod pod) {
+    val labels = pod.getMetadata().getLabels();
+    if (labels == null || !labels.containsKey(RUN_NAME_LABEL)) {
+      return Collections.emptyList();
+    }
+    val podName = pod.getMetadata().getName();
+    return List.of(WES_PREFIX, NEXTFLOW_PREFIX).stream()
+        .filter(podName::startsWith)
+        .map(prefix -> runPodIndexKey(prefix, labels.get(RUN_NAME_LABEL)))
+        .collect(Collectors.toList());
+  }
+
+  private static String runPodIndexKey(String prefix, String runId) {
+    return prefix + runId;
+  }
+}
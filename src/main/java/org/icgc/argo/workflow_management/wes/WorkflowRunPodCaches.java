@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management.wes;
+
+import static java.lang.String.format;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.val;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/** One {@link WorkflowRunPodCache} per cluster configured under nextflow.cluster */
+@Component
+public class WorkflowRunPodCaches {
+
+  private final Map<String, WorkflowRunPodCache> caches;
+
+  @Autowired
+  public WorkflowRunPodCaches(NextflowProperties config, WorkflowRunK8sClients k8sClients) {
+    val resyncPeriod = config.getK8s().getPodCacheResyncPeriod();
+    this.caches =
+        k8sClients.getAll().entrySet().stream()
+            .collect(
+                Collectors.toUnmodifiableMap(
+                    Map.Entry::getKey,
+                    entry ->
+                        new WorkflowRunPodCache(entry.getKey(), entry.getValue(), resyncPeriod)));
+    this.caches.values().forEach(WorkflowRunPodCache::start);
+  }
+
+  public WorkflowRunPodCache get(String cluster) {
+    return Optional.ofNullable(caches.get(cluster))
+        .orElseThrow(
+            () -> new IllegalArgumentException(format("Cluster %s is not configured.", cluster)));
+  }
+
+  public Map<String, WorkflowRunPodCache> getAll() {
+    return caches;
+  }
+
+  @PreDestroy
+  public void stop() {
+    caches.values().forEach(WorkflowRunPodCache::stop);
+  }
+}
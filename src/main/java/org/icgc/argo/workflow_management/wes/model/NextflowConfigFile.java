@@ -94,6 +94,13 @@ public class NextflowConfigFile {
     return filePath;
   }
 
+  public static class NextflowConfigFileBuilder {
+    /** Sets the cluster specific config (context and plugins dir) resolved for the run */
+    public NextflowConfigFileBuilder launchContext(@NonNull NextflowLaunchContext launchContext) {
+      return this.context(launchContext.getContext()).pluginsDir(launchContext.getPluginsDir());
+    }
+  }
+
   private static void writeFormattedLineIfValue(
       @NonNull Consumer<String> consumer, @NonNull String formatted, String value) {
     if (!isNullOrEmpty(value)) {
@@ -26,6 +26,8 @@ import java.nio.file.Path;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
@@ -78,7 +80,8 @@ public class NextflowWorkflowMetadata {
     this.setContainer(pod.getSpec().getContainers());
     this.setContainerEngine("Docker?");
     this.setExitStatus(0);
-    this.setStart(OffsetDateTime.parse(pod.getStatus().getStartTime()));
+    // pods that were never scheduled have no start time
+    ofNullable(pod.getStatus().getStartTime()).map(OffsetDateTime::parse).ifPresent(this::setStart);
   }
 
   public void updateWithEngineParams(@NonNull WorkflowEngineParams engineParams) {
@@ -109,4 +112,23 @@ public class NextflowWorkflowMetadata {
     setRepository(params.getWorkflowUrl());
     ofNullable(params.getWorkflowEngineParams()).ifPresent(this::updateWithEngineParams);
   }
+
+  /**
+   * Rebuilds what can be known about a run from its executor pod alone, for runs launched before
+   * the service was restarted.
+   */
+  public NextflowWorkflowMetadata(Pod executorPod) {
+    setRunName(executorPod.getMetadata().getName());
+    setCommandLine(
+        executorPod.getSpec().getContainers().stream()
+            .findFirst()
+            .map(
+                container ->
+                    Stream.concat(
+                            ofNullable(container.getCommand()).stream().flatMap(List::stream),
+                            ofNullable(container.getArgs()).stream().flatMap(List::stream))
+                        .collect(Collectors.joining(" ")))
+            .orElse("?"));
+    setSuccess(false);
+  }
 }
@@ -20,12 +20,16 @@ package org.icgc.argo.workflow_management.wes.properties;
 
 import java.util.List;
 import java.util.Map;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
 
 @Data
+@Validated
 @Configuration
 @EnableConfigurationProperties
 @ConfigurationProperties(prefix = "nextflow")
@@ -33,9 +37,10 @@ public class NextflowProperties {
   private K8sProperties k8s;
   private MonitorProperties monitor;
   private String weblogUrl;
+  private WeblogProperties weblog = new WeblogProperties();
   private String masterUrl;
   private boolean trustCertificate;
-  private Map<String, ClusterProperties> cluster;
+  private Map<String, @Valid ClusterProperties> cluster;
 
   @Data
   public static class K8sProperties {
@@ -49,12 +54,68 @@ public class NextflowProperties {
     private String masterUrl;
     private String context;
     private boolean trustCertificate;
+    private Long podCacheResyncPeriod = 600000L; // milliseconds
+  }
+
+  @Data
+  public static class WeblogProperties {
+    private Integer maxConnections = 50;
+    private Integer pendingAcquireMaxCount = 1000;
+    private Long pendingAcquireTimeout = 45000L; // milliseconds
+    private Long maxIdleTime = 60000L; // milliseconds
+    private Integer connectTimeout = 10000; // milliseconds
+    private Long responseTimeout = 30000L; // milliseconds
+    private Integer circuitFailureThreshold = 5;
+    private Long circuitOpenDuration = 30000L; // milliseconds
+    private Long maxRetries = 3L;
+    private Long retryBackoff = 200L; // milliseconds
+    private Long latencyBudget = 45000L; // milliseconds, for a send including its retries
+    private OutboxProperties outbox = new OutboxProperties();
+    private BatchProperties batch = new BatchProperties();
+  }
+
+  @Data
+  public static class BatchProperties {
+    private boolean enabled;
+    private String url; // endpoint accepting a json array of events
+    private Integer maxSize = 100;
+    private Long window = 200L; // milliseconds
+  }
+
+  @Data
+  public static class OutboxProperties {
+    private String dir = "weblog-outbox";
+    private Integer segmentSize = 8388608; // bytes
+    private Integer maxSegments = 64;
+    private Integer lanes = 16;
+    private Integer maxInFlight = 1000;
+    private Long minBackoff = 1000L; // milliseconds
+    private Long maxBackoff = 60000L; // milliseconds
   }
 
   @Data
   public static class MonitorProperties {
-    private Integer sleepInterval;
     private Integer maxErrorLogLines;
+    private Integer maxErrorLogBytes = 65536;
+    private StuckRunProperties stuck = new StuckRunProperties();
+    private Map<String, StuckRunProperties> cluster = Map.of(); // per cluster overrides of stuck
+    private Long cancelVerifyDelay = 60000L; // milliseconds
+    private Long tickDuration = 100L; // milliseconds
+    private Integer wheelSize = 512;
+    private Integer workerThreads = 2;
+
+    public StuckRunProperties getStuck(String clusterName) {
+      return cluster.getOrDefault(clusterName, stuck);
+    }
+  }
+
+  @Data
+  public static class StuckRunProperties {
+    private Long pendingTimeout = 3600000L; // milliseconds
+    private List<String> waitingReasons =
+        List.of(
+            "ImagePullBackOff", "ErrImagePull", "InvalidImageName", "CreateContainerConfigError");
+    private Long waitingTimeout = 600000L; // milliseconds
   }
 
   @Data
@@ -63,5 +124,25 @@ public class NextflowProperties {
     private String masterUrl;
     private List<String> volMounts;
     private String pluginsDir;
+    private Integer maxIdleConnections = 5;
+    private Integer keepAliveDuration = 300000; // milliseconds
+    private Integer connectionTimeout = 10000; // milliseconds
+    private Integer requestTimeout = 10000; // milliseconds
+    private boolean http2Disable;
+    private Integer maxThreads = 10;
+    private Integer maxQueuedTasks = 100;
+    private Double launchRate; // launches per second, not limited when unset
+    private Integer launchBurst = 1;
+    @Valid private ConcurrencyLimitProperties concurrencyLimit = new ConcurrencyLimitProperties();
+  }
+
+  @Data
+  public static class ConcurrencyLimitProperties {
+    private Integer initial = 4;
+    @Min(1) private Integer min = 1;
+    private Integer max = 10;
+    private Long p90Target = 5000L; // milliseconds
+    @Min(1) private Integer window = 20; // k8s API calls per p90 sample
+    private Double backoffRatio = 0.7;
   }
 }
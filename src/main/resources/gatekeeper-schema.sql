@@ -0,0 +1,12 @@
+-- runs table as created by hibernate for the JPA gatekeeper, for the r2dbc profile which doesn't create it
+CREATE TABLE IF NOT EXISTS runs (
+    run_id                   VARCHAR(255) PRIMARY KEY,
+    state                    VARCHAR(255),
+    timestamp                BIGINT,
+    version                  BIGINT,
+    workflow_engine_params   JSON,
+    workflow_params_json_str JSON,
+    workflow_type            VARCHAR(255),
+    workflow_type_version    VARCHAR(255),
+    workflow_url             VARCHAR(255)
+);
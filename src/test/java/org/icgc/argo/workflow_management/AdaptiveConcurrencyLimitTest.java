@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.icgc.argo.workflow_management.wes.AdaptiveConcurrencyLimit;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties.ConcurrencyLimitProperties;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+  @Test
+  public void testAcquireRespectsLimit() {
+    val limit = limit(5000L);
+    assertTrue(limit.tryAcquire());
+    assertTrue(limit.tryAcquire());
+    assertFalse(limit.tryAcquire());
+
+    limit.release();
+    assertTrue(limit.tryAcquire());
+  }
+
+  @Test
+  @SneakyThrows
+  public void testFastCallsIncreaseLimitUpToMax() {
+    val limit = limit(5000L);
+    limit.measure(() -> true);
+    assertEquals(2, limit.getLimit());
+    limit.measure(() -> true);
+    assertEquals(3, limit.getLimit());
+
+    limit.measure(() -> true);
+    limit.measure(() -> true);
+    assertEquals(3, limit.getLimit());
+  }
+
+  @Test
+  @SneakyThrows
+  public void testSlowCallsDecreaseLimit() {
+    val limit = limit(1L);
+    for (int i = 0; i < 2; i++) {
+      limit.measure(
+          () -> {
+            Thread.sleep(5);
+            return true;
+          });
+    }
+    assertEquals(1, limit.getLimit());
+  }
+
+  @Test
+  public void testTooManyRequestsDecreasesLimitDownToMin() {
+    val limit = limit(5000L);
+    measureFailing(limit, 429);
+    assertEquals(1, limit.getLimit());
+    measureFailing(limit, 429);
+    assertEquals(1, limit.getLimit());
+  }
+
+  @Test
+  public void testOtherErrorsAreSampled() {
+    val limit = limit(5000L);
+    measureFailing(limit, 500);
+    measureFailing(limit, 500);
+    assertEquals(3, limit.getLimit());
+  }
+
+  private static AdaptiveConcurrencyLimit limit(Long p90Target) {
+    val properties = new ConcurrencyLimitProperties();
+    properties.setInitial(2);
+    properties.setMin(1);
+    properties.setMax(3);
+    properties.setP90Target(p90Target);
+    properties.setWindow(2);
+    properties.setBackoffRatio(0.5);
+    return new AdaptiveConcurrencyLimit("default", properties, new SimpleMeterRegistry());
+  }
+
+  private static void measureFailing(AdaptiveConcurrencyLimit limit, int code) {
+    try {
+      limit.measure(
+          () -> {
+            throw new KubernetesClientException("k8s API call failed", code, null);
+          });
+      fail("Expected the k8s API call to fail");
+    } catch (Exception e) {
+      assertEquals(code, ((KubernetesClientException) e).getCode());
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management;
+
+import static org.icgc.argo.workflow_management.streams.utils.RabbitmqUtils.nextRetryAttempt;
+import static org.icgc.argo.workflow_management.streams.utils.RabbitmqUtils.retryQueueName;
+import static org.icgc.argo.workflow_management.streams.utils.WfMgmtRunMsgConverters.createWfMgmtRunMsg;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.icgc.argo.workflow_management.streams.schema.RunState;
+import org.icgc.argo.workflow_management.streams.schema.WfMgmtRunMsg;
+import org.junit.Test;
+
+/** Walks a failing cancel msg through its retries the way the canceling consumer does */
+public class CancelRetryTest {
+  private static final String QUEUE = "execute-canceling";
+  private static final int MAX_ATTEMPTS = 3;
+
+  @Test
+  public void testRetriesGoThroughEachDelayQueueThenStop() {
+    WfMgmtRunMsg msg = createWfMgmtRunMsg("wes-1", RunState.CANCELING);
+    val retryQueues = new ArrayList<String>();
+    Optional<Integer> attempt;
+    while ((attempt = nextRetryAttempt(msg, MAX_ATTEMPTS)).isPresent()) {
+      msg = WfMgmtRunMsg.newBuilder(msg).setRetryAttempt(attempt.get()).build();
+      retryQueues.add(retryQueueName(QUEUE, msg));
+    }
+
+    assertEquals(
+        List.of(
+            "execute-canceling-retry-0", "execute-canceling-retry-1", "execute-canceling-retry-2"),
+        retryQueues);
+    assertEquals(Optional.empty(), nextRetryAttempt(msg, MAX_ATTEMPTS));
+  }
+
+  @Test
+  public void testNoRetriesWithoutDelayQueues() {
+    assertTrue(nextRetryAttempt(createWfMgmtRunMsg("wes-1", RunState.CANCELING), 0).isEmpty());
+  }
+
+  @Test
+  @SneakyThrows
+  public void testRetryAttemptIsCarriedOnTheMsg() {
+    val msg = createWfMgmtRunMsg("wes-1", RunState.CANCELING);
+    assertNull(WfMgmtRunMsg.fromByteBuffer(msg.toByteBuffer()).getRetryAttempt());
+
+    val retryMsg = WfMgmtRunMsg.newBuilder(msg).setRetryAttempt(2).build();
+    val redelivered = WfMgmtRunMsg.fromByteBuffer(retryMsg.toByteBuffer());
+    assertEquals(Integer.valueOf(2), redelivered.getRetryAttempt());
+    assertEquals(Optional.of(3), nextRetryAttempt(redelivered, MAX_ATTEMPTS));
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management;
+
+import static org.junit.Assert.assertEquals;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.icgc.argo.workflow_management.wes.ClusterRateLimiter;
+import org.junit.Test;
+import reactor.test.StepVerifier;
+
+public class ClusterRateLimiterTest {
+  private static final String CLUSTER = "default";
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  // one launch per 1000s, so no token is refilled while a test runs
+  private final ClusterRateLimiter limiter =
+      new ClusterRateLimiter(CLUSTER, 0.001, 2, meterRegistry);
+
+  @Test
+  public void testBurstIsTakenRightAway() {
+    assertEquals(2, tokens(), 0.01);
+    StepVerifier.create(limiter.acquire()).verifyComplete();
+    StepVerifier.create(limiter.acquire()).verifyComplete();
+    assertEquals(0, tokens(), 0.01);
+    assertEquals(0, throttled(), 0);
+  }
+
+  @Test
+  public void testLaunchWaitsOnceBurstIsUsed() {
+    limiter.acquire().block();
+    limiter.acquire().block();
+
+    StepVerifier.create(limiter.acquire())
+        .expectSubscription()
+        .expectNoEvent(Duration.ofMillis(100))
+        .thenCancel()
+        .verify();
+    assertEquals(1, throttled(), 0);
+    assertEquals(0, tokens(), 0.01);
+  }
+
+  @Test
+  public void testRefundGivesBackTokenUpToBurst() {
+    limiter.acquire().block();
+    limiter.acquire().block();
+
+    limiter.refund();
+    assertEquals(1, tokens(), 0.01);
+    limiter.refund();
+    limiter.refund();
+    assertEquals(2, tokens(), 0.01);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyBurst() {
+    new ClusterRateLimiter(CLUSTER, 1, 0, new SimpleMeterRegistry());
+  }
+
+  private double tokens() {
+    return meterRegistry
+        .get(ClusterRateLimiter.TOKENS_METRIC)
+        .tag("cluster", CLUSTER)
+        .gauge()
+        .value();
+  }
+
+  private double throttled() {
+    return meterRegistry
+        .get(ClusterRateLimiter.THROTTLED_METRIC)
+        .tag("cluster", CLUSTER)
+        .counter()
+        .count();
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management;
+
+import static org.icgc.argo.workflow_management.streams.utils.WfMgmtRunMsgConverters.createWfMgmtRunMsg;
+import static org.icgc.argo.workflow_management.util.TransactionUtils.isRejected;
+import static org.icgc.argo.workflow_management.util.TransactionUtils.wrapWithTransaction;
+import static org.icgc.argo.workflow_management.util.WesUtils.generateWesRunId;
+import static org.junit.Assert.*;
+
+import com.pivotal.rabbitmq.stream.Transaction;
+import java.time.Duration;
+import lombok.val;
+import org.icgc.argo.workflow_management.gatekeeper.service.GatekeeperProcessor;
+import org.icgc.argo.workflow_management.streams.schema.RunState;
+import org.icgc.argo.workflow_management.streams.schema.WfMgmtRunMsg;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.testcontainers.containers.PostgreSQLContainer;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+/**
+ * Tests the GateKeeperProcessor with gatekeeper.batch enabled, where msgs arriving together are
+ * checked in order against each other and written in one transaction.
+ */
+@ActiveProfiles({"gatekeeper", "test"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(properties = {"gatekeeper.batch.enabled=true", "gatekeeper.batch.window=200"})
+@ContextConfiguration(initializers = {GateKeeperBatchProcessorTests.Initializer.class})
+public class GateKeeperBatchProcessorTests {
+
+  @ClassRule
+  public static PostgreSQLContainer postgreSQLContainer =
+      new PostgreSQLContainer("postgres:10-alpine")
+          .withDatabaseName("gatekeeperdb")
+          .withUsername("test")
+          .withPassword("test");
+
+  @Autowired GatekeeperProcessor processor;
+
+  /**
+   * Testing given two in flux, assert expected out flux: gatekeeperInFlux
+   * :---[QUEUED,INITIALIZING,INITIALIZING]-------------------> weblogInFlux
+   * :-----------------------|----------------[RUNNING,COMPLETE]---> gatekeeperOutFlux
+   * :---QUEUED---INITIALIZING----------------RUNNING---COMPLETE--->
+   */
+  @Test
+  public void testBatchedMsgsAreCheckedInOrder() {
+    val runId = generateWesRunId();
+    val gatekeeperInput = TestPublisher.<Transaction<WfMgmtRunMsg>>create();
+    val weblogInput = TestPublisher.<Transaction<WfMgmtRunMsg>>create();
+
+    val gatekeeperOutFlux =
+        processor
+            .apply(gatekeeperInput.flux(), weblogInput.flux())
+            .timeout(Duration.ofSeconds(300));
+
+    val invalidMsg = createWfMgmtRunMsgTransaction(runId, RunState.INITIALIZING);
+
+    StepVerifier.create(gatekeeperOutFlux)
+        .then(
+            () ->
+                gatekeeperInput.next(
+                    createWfMgmtRunMsgTransaction(runId, RunState.QUEUED),
+                    createWfMgmtRunMsgTransaction(runId, RunState.INITIALIZING),
+                    invalidMsg))
+        .expectNextMatches(tx -> tx.get().getState().equals(RunState.QUEUED))
+        .expectNextMatches(tx -> tx.get().getState().equals(RunState.INITIALIZING))
+        .then(
+            () ->
+                weblogInput.next(
+                    createWfMgmtRunMsgTransaction(runId, RunState.RUNNING),
+                    createWfMgmtRunMsgTransaction(runId, RunState.COMPLETE)))
+        .expectNextMatches(tx -> tx.get().getState().equals(RunState.RUNNING))
+        .expectNextMatches(tx -> tx.get().getState().equals(RunState.COMPLETE))
+        .then(
+            () -> {
+              gatekeeperInput.complete();
+              weblogInput.complete();
+            })
+        .expectComplete()
+        .verify();
+
+    assertTrue(isRejected(invalidMsg));
+  }
+
+  private Transaction<WfMgmtRunMsg> createWfMgmtRunMsgTransaction(String runId, RunState state) {
+    return wrapWithTransaction(createWfMgmtRunMsg(runId, state));
+  }
+
+  static class Initializer
+      implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+    public void initialize(ConfigurableApplicationContext configurableApplicationContext) {
+      TestPropertyValues.of(
+              "spring.datasource.url="
+                  + postgreSQLContainer.getJdbcUrl()
+                  + "&stringtype=unspecified",
+              "spring.datasource.username=" + postgreSQLContainer.getUsername(),
+              "spring.datasource.password=" + postgreSQLContainer.getPassword())
+          .applyTo(configurableApplicationContext.getEnvironment());
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc.argo.workflow_management;
+
+import org.icgc.argo.workflow_management.gatekeeper.service.ReactiveGatekeeperProcessor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+
+/** Runs the gatekeeper processor tests against the r2dbc ReactiveGatekeeperProcessor. */
+@ActiveProfiles({"gatekeeper", "r2dbc", "test"})
+@ContextConfiguration(initializers = {GateKeeperR2dbcProcessorTests.Initializer.class})
+public class GateKeeperR2dbcProcessorTests extends AbstractGateKeeperProcessorTests {
+
+  @Autowired ReactiveGatekeeperProcessor processor;
+
+  @Override
+  protected ReactiveGatekeeperProcessor getProcessor() {
+    return processor;
+  }
+
+  static class Initializer
+      implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+    public void initialize(ConfigurableApplicationContext configurableApplicationContext) {
+      TestPropertyValues.of(
+              "spring.r2dbc.url="
+                  + String.format(
+                      "r2dbc:postgresql://%s:%d/%s",
+                      postgreSQLContainer.getHost(),
+                      postgreSQLContainer.getFirstMappedPort(),
+                      postgreSQLContainer.getDatabaseName()),
+              "spring.r2dbc.username=" + postgreSQLContainer.getUsername(),
+              "spring.r2dbc.password=" + postgreSQLContainer.getPassword())
+          .applyTo(configurableApplicationContext.getEnvironment());
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.icgc.argo.workflow_management.wes.HashedTimingWheel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedTimingWheelTest {
+  private HashedTimingWheel wheel;
+
+  @Before
+  public void setUp() {
+    // 8 ticks of 10ms, so a deadline further than 80ms out has to wait for more than one round
+    wheel = new HashedTimingWheel(10, 8, 1, new SimpleMeterRegistry());
+  }
+
+  @After
+  public void tearDown() {
+    wheel.stop();
+  }
+
+  @Test
+  @SneakyThrows
+  public void testDeadlineExpires() {
+    val expired = new CountDownLatch(1);
+    wheel.schedule("run-1", expired::countDown, 20, TimeUnit.MILLISECONDS);
+    assertEquals(1, wheel.getPending());
+
+    assertTrue(expired.await(2, TimeUnit.SECONDS));
+    assertEquals(0, wheel.getPending());
+  }
+
+  @Test
+  @SneakyThrows
+  public void testDeadlineWaitsForItsRound() {
+    val expired = new CountDownLatch(1);
+    val scheduledAt = System.nanoTime();
+    wheel.schedule("run-1", expired::countDown, 250, TimeUnit.MILLISECONDS);
+
+    assertTrue(expired.await(2, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - scheduledAt >= TimeUnit.MILLISECONDS.toNanos(250));
+  }
+
+  @Test
+  @SneakyThrows
+  public void testCancelledDeadlineNeverRuns() {
+    val expired = new CountDownLatch(1);
+    val deadline = wheel.schedule("run-1", expired::countDown, 50, TimeUnit.MILLISECONDS);
+
+    assertTrue(deadline.cancel());
+    assertEquals(0, wheel.getPending());
+    assertFalse(expired.await(300, TimeUnit.MILLISECONDS));
+    assertFalse(deadline.cancel());
+  }
+
+  @Test
+  @SneakyThrows
+  public void testExpiredDeadlineCannotBeCancelled() {
+    val expired = new CountDownLatch(1);
+    val deadline = wheel.schedule("run-1", expired::countDown, 0, TimeUnit.MILLISECONDS);
+
+    assertTrue(expired.await(2, TimeUnit.SECONDS));
+    assertFalse(deadline.cancel());
+    assertFalse(deadline.isCancelled());
+    assertEquals(0, wheel.getPending());
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.icgc.argo.workflow_management.util.LogTail;
+import org.junit.Test;
+
+public class LogTailTest {
+  @Test
+  @SneakyThrows
+  public void testKeepsLastLines() {
+    val log = new StringReader("one\ntwo\nthree\nfour");
+    assertEquals("three\nfour", LogTail.read(log, 2, 1024));
+  }
+
+  @Test
+  @SneakyThrows
+  public void testKeepsLinesWithinByteCap() {
+    val log = new StringReader("one\ntwo\nthree\nfour");
+    assertEquals("four", LogTail.read(log, 10, 8));
+  }
+
+  @Test
+  public void testKeepsEndOfOversizedLine() {
+    val tail = new LogTail(10, 4);
+    tail.add("abcdefgh");
+    assertEquals("efgh", tail.toString());
+  }
+}
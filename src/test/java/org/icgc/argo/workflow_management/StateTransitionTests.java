@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management;
+
+import static org.icgc.argo.workflow_management.gatekeeper.service.StateTransition.currentStatesByNextState;
+import static org.icgc.argo.workflow_management.gatekeeper.service.StateTransition.nextState;
+import static org.icgc.argo.workflow_management.streams.schema.RunState.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+import lombok.val;
+import org.icgc.argo.workflow_management.streams.schema.RunState;
+import org.junit.Test;
+
+public class StateTransitionTests {
+
+  @Test
+  public void testCurrentStatesByNextState() {
+    assertEquals(
+        Map.of(CANCELED, Set.of(QUEUED), CANCELING, Set.of(INITIALIZING, RUNNING)),
+        currentStatesByNextState(CANCELING));
+    assertEquals(Map.of(RUNNING, Set.of(INITIALIZING)), currentStatesByNextState(RUNNING));
+    assertTrue(currentStatesByNextState(QUEUED).isEmpty());
+  }
+
+  @Test
+  public void testCurrentStatesByNextStateMatchesNextState() {
+    val activeStates = Set.of(QUEUED, INITIALIZING, CANCELING, RUNNING);
+    for (val inputState : RunState.values()) {
+      val currentStatesByNext = currentStatesByNextState(inputState);
+      for (val currentState : activeStates) {
+        val next = nextState(currentState, inputState);
+        next.ifPresent(n -> assertTrue(currentStatesByNext.get(n).contains(currentState)));
+        assertEquals(
+            next.isPresent(),
+            currentStatesByNext.values().stream().anyMatch(s -> s.contains(currentState)));
+      }
+    }
+  }
+}
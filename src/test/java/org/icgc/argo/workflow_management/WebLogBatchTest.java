@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.icgc.argo.workflow_management.config.weblog.WebLogClientConfig;
+import org.icgc.argo.workflow_management.streams.WebLogEventSender;
+import org.icgc.argo.workflow_management.util.JacksonUtils;
+import org.icgc.argo.workflow_management.wes.model.WesState;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+/** Verifies the batch protocol against a local stub of the weblog batch endpoint */
+public class WebLogBatchTest {
+  private final List<JsonNode> batches = new CopyOnWriteArrayList<>();
+  private final Sinks.Empty<Void> unstall = Sinks.empty();
+  private volatile boolean stalled = false;
+  private DisposableServer stubWeblog;
+  private WebLogEventSender sender;
+
+  @Before
+  @SneakyThrows
+  public void setUp() {
+    stubWeblog =
+        HttpServer.create()
+            .port(0)
+            .route(
+                routes ->
+                    routes.post(
+                        "/batch",
+                        (request, response) ->
+                            request
+                                .receive()
+                                .aggregate()
+                                .asString()
+                                .map(body -> JacksonUtils.readValue(body, JsonNode.class))
+                                .delayUntil(batch -> stalled ? unstall.asMono() : Mono.empty())
+                                .doOnNext(batches::add)
+                                .map(WebLogBatchTest::respond)
+                                .flatMap(body -> response.sendString(Mono.just(body)).then())))
+            .bindNow();
+
+    val config = new NextflowProperties();
+    config.setWeblogUrl("http://localhost:" + stubWeblog.port());
+    config.getWeblog().getBatch().setEnabled(true);
+    config.getWeblog().getBatch().setUrl("http://localhost:" + stubWeblog.port() + "/batch");
+    config.getWeblog().getBatch().setMaxSize(10);
+    config.getWeblog().getBatch().setWindow(500L);
+    config.getWeblog().getOutbox().setDir(Files.createTempDirectory("outbox").toString());
+
+    sender =
+        new WebLogEventSender(
+            new WebLogClientConfig().weblogWebClient(config), config, new SimpleMeterRegistry());
+  }
+
+  /** Every event succeeds except those of run "bad" */
+  private static String respond(JsonNode batch) {
+    val results = new ArrayList<Boolean>();
+    batch.forEach(event -> results.add(!event.get("runId").asText().equals("bad")));
+    return JacksonUtils.toJsonString(results);
+  }
+
+  @After
+  public void tearDown() {
+    sender.close();
+    stubWeblog.disposeNow();
+  }
+
+  @Test
+  public void testEventsAreBatchedInOrder() {
+    val runIds = IntStream.range(0, 5).mapToObj(i -> "run-" + i).collect(Collectors.toList());
+
+    StepVerifier.create(
+            Flux.fromIterable(runIds)
+                .flatMapSequential(
+                    runId -> sender.sendWfMgmtEvent(runId, WesState.INITIALIZING)))
+        .expectNext(true, true, true, true, true)
+        .expectComplete()
+        .verify(Duration.ofSeconds(10));
+
+    assertEquals(1, batches.size());
+    val sentRunIds = new CopyOnWriteArrayList<String>();
+    batches.get(0).forEach(event -> sentRunIds.add(event.get("runId").asText()));
+    assertEquals(runIds, sentRunIds);
+  }
+
+  @Test
+  public void testFailedEventIsReportedToItsSender() {
+    val good = sender.sendWfMgmtEvent("good", WesState.INITIALIZING);
+    val bad = sender.sendWfMgmtEvent("bad", WesState.INITIALIZING);
+
+    StepVerifier.create(Flux.mergeSequential(good, bad.onErrorReturn(false)))
+        .expectNext(true, false)
+        .expectComplete()
+        .verify(Duration.ofSeconds(10));
+
+    assertEquals(1, batches.size());
+    assertEquals(2, batches.get(0).size());
+  }
+
+  @Test
+  @SneakyThrows
+  public void testBatchesWaitWhileWebLogStalls() {
+    stalled = true;
+    // 40 full batches, more than concatMap prefetches, pile up behind the stalled first one
+    val results =
+        Flux.range(0, 400)
+            .flatMap(i -> sender.sendWfMgmtEvent("run-" + i, WesState.INITIALIZING), 400)
+            .collectList()
+            .toFuture();
+    Thread.sleep(1000);
+    stalled = false;
+    unstall.tryEmitEmpty();
+
+    val sent = results.get(10, TimeUnit.SECONDS);
+    assertEquals(400, sent.size());
+    assertTrue(sent.stream().allMatch(Boolean.TRUE::equals));
+    assertTrue(batches.size() > 32);
+  }
+}
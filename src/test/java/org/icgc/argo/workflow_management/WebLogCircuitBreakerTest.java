@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.icgc.argo.workflow_management.exception.WebLogCircuitOpenException;
+import org.icgc.argo.workflow_management.exception.WebLogEventRejectedException;
+import org.icgc.argo.workflow_management.streams.WebLogCircuitBreaker;
+import org.icgc.argo.workflow_management.streams.WebLogCircuitBreaker.State;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+public class WebLogCircuitBreakerTest {
+  private static final Duration OPEN_DURATION = Duration.ofMillis(100);
+
+  private final WebLogCircuitBreaker circuit = new WebLogCircuitBreaker(2, OPEN_DURATION);
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    fail();
+    assertEquals(State.CLOSED, circuit.getState());
+    fail();
+    assertEquals(State.OPEN, circuit.getState());
+    assertShortCircuited();
+  }
+
+  @Test
+  public void testSuccessResetsFailures() {
+    fail();
+    succeed();
+    fail();
+    assertEquals(State.CLOSED, circuit.getState());
+    assertEquals(1, circuit.getConsecutiveFailures());
+  }
+
+  @Test
+  @SneakyThrows
+  public void testHalfOpenLetsOneProbeThrough() {
+    open();
+    Thread.sleep(OPEN_DURATION.toMillis() + 50);
+
+    val probe = circuit.protect(Mono.never()).subscribe();
+    assertEquals(State.HALF_OPEN, circuit.getState());
+    assertShortCircuited();
+
+    // a cancelled probe lets the next call probe instead
+    probe.dispose();
+    succeed();
+    assertEquals(State.CLOSED, circuit.getState());
+    assertEquals(0, circuit.getConsecutiveFailures());
+  }
+
+  @Test
+  @SneakyThrows
+  public void testFailedProbeReopens() {
+    open();
+    Thread.sleep(OPEN_DURATION.toMillis() + 50);
+
+    fail();
+    assertEquals(State.OPEN, circuit.getState());
+    assertShortCircuited();
+  }
+
+  @Test
+  public void testRejectedEventsDoNotOpen() {
+    for (int i = 0; i < 3; i++) {
+      StepVerifier.create(circuit.protect(Mono.error(new WebLogEventRejectedException())))
+          .expectError(WebLogEventRejectedException.class)
+          .verify();
+    }
+    assertEquals(State.CLOSED, circuit.getState());
+    assertEquals(0, circuit.getConsecutiveFailures());
+  }
+
+  private void open() {
+    fail();
+    fail();
+    assertEquals(State.OPEN, circuit.getState());
+  }
+
+  private void fail() {
+    StepVerifier.create(circuit.protect(Mono.error(new RuntimeException("web-log down"))))
+        .expectErrorMessage("web-log down")
+        .verify();
+  }
+
+  private void succeed() {
+    StepVerifier.create(circuit.protect(Mono.just(true))).expectNext(true).verifyComplete();
+  }
+
+  private void assertShortCircuited() {
+    StepVerifier.create(circuit.protect(Mono.just(true)))
+        .expectError(WebLogCircuitOpenException.class)
+        .verify();
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of the GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.argo.workflow_management;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertEquals;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.icgc.argo.workflow_management.exception.WebLogEventRejectedException;
+import org.icgc.argo.workflow_management.streams.WebLogOutbox;
+import org.icgc.argo.workflow_management.wes.properties.NextflowProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+public class WebLogOutboxTest {
+  private static final String RUN_ID = "wes-1";
+
+  private final List<String> sent = new CopyOnWriteArrayList<>();
+  private final List<WebLogOutbox> outboxes = new ArrayList<>();
+  private Path dir;
+  private SimpleMeterRegistry meterRegistry;
+
+  @Before
+  @SneakyThrows
+  public void setUp() {
+    dir = Files.createTempDirectory("outbox");
+  }
+
+  @After
+  public void tearDown() {
+    outboxes.forEach(WebLogOutbox::close);
+  }
+
+  @Test
+  public void testUnsentEventsAreReplayedAfterReopen() {
+    val stuck = open(event -> Mono.never());
+    stuck.add(RUN_ID, bytes("one"));
+    stuck.add(RUN_ID, bytes("two"));
+    stuck.close();
+
+    val outbox = open(this::record);
+    awaitSent(outbox);
+    assertEquals(List.of("one", "two"), sent);
+  }
+
+  @Test
+  public void testSentEventsAreNotReplayedAfterReopen() {
+    val first = open(this::record);
+    first.add(RUN_ID, bytes("one"));
+    awaitSent(first);
+    first.close();
+
+    val outbox = open(this::record);
+    outbox.add(RUN_ID, bytes("two"));
+    awaitSent(outbox);
+    assertEquals(List.of("one", "two"), sent);
+  }
+
+  @Test
+  @SneakyThrows
+  public void testTornRecordIsIgnoredAfterReopen() {
+    val stuck = open(event -> Mono.never());
+    stuck.add(RUN_ID, bytes("one"));
+    stuck.close();
+
+    // a crash mid append leaves the bytes of a record without the length that commits it, the
+    // segment header is 8 bytes and a record is its length, key length, key and event
+    val tornAt = 8 + 4 + 4 + RUN_ID.length() + "one".length();
+    try (val channel = FileChannel.open(dir.resolve(String.format("%020d.segment", 0)), WRITE)) {
+      channel.write(ByteBuffer.wrap(bytes("torn")), tornAt + 4);
+    }
+
+    val outbox = open(this::record);
+    outbox.add(RUN_ID, bytes("two"));
+    awaitSent(outbox);
+    assertEquals(List.of("one", "two"), sent);
+  }
+
+  @Test
+  public void testEventsOfARunAreSentInOrder() {
+    // the first event of run a fails once, the events after it must wait for its retry
+    val failedOnce = new AtomicBoolean();
+    val outbox =
+        open(
+            event ->
+                new String(event, UTF_8).equals("a-1") && failedOnce.compareAndSet(false, true)
+                    ? Mono.error(new RuntimeException("web-log down"))
+                    : record(event));
+    for (int i = 1; i <= 5; i++) {
+      outbox.add("wes-a", bytes("a-" + i));
+      outbox.add("wes-b", bytes("b-" + i));
+    }
+
+    awaitSent(outbox);
+    assertEquals(expectedEvents("a-", 5), sentEvents("a-"));
+    assertEquals(expectedEvents("b-", 5), sentEvents("b-"));
+  }
+
+  @Test
+  public void testRejectedEventIsDroppedWithoutRetrying() {
+    val attempts = new AtomicInteger();
+    val outbox =
+        open(
+            event -> {
+              if (new String(event, UTF_8).equals("bad")) {
+                attempts.incrementAndGet();
+                return Mono.error(new WebLogEventRejectedException());
+              }
+              return record(event);
+            });
+    outbox.add(RUN_ID, bytes("bad"));
+    outbox.add(RUN_ID, bytes("good"));
+
+    awaitSent(outbox);
+    assertEquals(List.of("good"), sent);
+    assertEquals(1, attempts.get());
+    assertEquals(1, meterRegistry.get(WebLogOutbox.DROPPED_METRIC).counter().count(), 0);
+  }
+
+  @Test
+  public void testSentEventsAreNotReplayedAfterRollover() {
+    // the header and two records of 3 byte events fill a segment
+    val segmentSize = 8 + 2 * (4 + 4 + RUN_ID.length() + 3);
+    val first = open(this::record, segmentSize);
+    first.add(RUN_ID, bytes("one"));
+    first.add(RUN_ID, bytes("two"));
+    awaitSent(first);
+    first.add(RUN_ID, bytes("six"));
+    awaitSent(first);
+    first.close();
+
+    val outbox = open(this::record, segmentSize);
+    assertEquals(0, outbox.getBacklog());
+    outbox.add(RUN_ID, bytes("ten"));
+    awaitSent(outbox);
+    assertEquals(List.of("one", "two", "six", "ten"), sent);
+  }
+
+  private WebLogOutbox open(Function<byte[], Mono<Boolean>> sender) {
+    return open(sender, 1024);
+  }
+
+  private WebLogOutbox open(Function<byte[], Mono<Boolean>> sender, int segmentSize) {
+    val config = new NextflowProperties.OutboxProperties();
+    config.setDir(dir.toString());
+    config.setSegmentSize(segmentSize);
+    config.setLanes(4);
+    config.setMinBackoff(10L);
+    config.setMaxBackoff(50L);
+    meterRegistry = new SimpleMeterRegistry();
+    val outbox = new WebLogOutbox(config, sender, meterRegistry);
+    outboxes.add(outbox);
+    return outbox;
+  }
+
+  private Mono<Boolean> record(byte[] event) {
+    return Mono.fromCallable(
+        () -> {
+          sent.add(new String(event, UTF_8));
+          return true;
+        });
+  }
+
+  private List<String> sentEvents(String prefix) {
+    return sent.stream().filter(event -> event.startsWith(prefix)).collect(Collectors.toList());
+  }
+
+  private static List<String> expectedEvents(String prefix, int count) {
+    return IntStream.rangeClosed(1, count).mapToObj(i -> prefix + i).collect(Collectors.toList());
+  }
+
+  @SneakyThrows
+  private static void awaitSent(WebLogOutbox outbox) {
+    for (int i = 0; i < 200 && outbox.getBacklog() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, outbox.getBacklog());
+  }
+
+  private static byte[] bytes(String event) {
+    return event.getBytes(UTF_8);
+  }
+}